@@ -0,0 +1,120 @@
+package no.bouvet.snaploc;
+
+import android.location.Location;
+import android.media.ExifInterface;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+public class ExifUtilsTest extends TestCase {
+    private File file;
+    private ExifInterface exif;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        file = File.createTempFile("exif-", ".jpg");
+        exif = new ExifInterface(file.getAbsolutePath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        assertTrue(file.delete());
+
+        super.tearDown();
+    }
+
+    private Location createLocation(final long time) {
+        return createLocation(59.9, 10.75, time);
+    }
+
+    private Location createLocation(final double latitude, final double longitude, final long time) {
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setTime(time);
+
+        return location;
+    }
+
+    private void assertLocationRoundTrip(final double latitude, final double longitude, final String latitudeRef, final String longitudeRef) {
+        ExifUtils.setLocation(exif, createLocation(latitude, longitude, 0));
+
+        assertEquals(latitudeRef, exif.getAttribute(ExifInterface.TAG_GPS_LATITUDE_REF));
+        assertEquals(longitudeRef, exif.getAttribute(ExifInterface.TAG_GPS_LONGITUDE_REF));
+
+        Location location = ExifUtils.getLocation(exif);
+
+        assertNotNull(location);
+        assertEquals(latitude, location.getLatitude(), 1e-6);
+        assertEquals(longitude, location.getLongitude(), 1e-6);
+    }
+
+    public void testNoLocation() {
+        assertNull(ExifUtils.getLocation(exif));
+    }
+
+    public void testLocationRoundTrip() {
+        ExifUtils.setLocation(exif, createLocation(0));
+        Location location = ExifUtils.getLocation(exif);
+
+        assertNotNull(location);
+        assertEquals(59.9, location.getLatitude(), 1e-6);
+        assertEquals(10.75, location.getLongitude(), 1e-6);
+        assertEquals(0, location.getTime());
+    }
+
+    public void testLocationRoundTripSouthWest() {
+        assertLocationRoundTrip(-33.5, -70.65, "S", "W");
+    }
+
+    public void testLocationRoundTripMixed() {
+        assertLocationRoundTrip(-33.8688, 151.2093, "S", "E");
+        assertLocationRoundTrip(40.7128, -74.006, "N", "W");
+    }
+
+    public void testLocationRoundTripNearZero() {
+        assertLocationRoundTrip(0.0004, -0.0002, "N", "W");
+        assertLocationRoundTrip(-0.0004, 0.0002, "S", "E");
+    }
+
+    public void testTimeFromGPSStamp() {
+        // 2015-05-05T12:30:15Z
+        ExifUtils.setLocation(exif, createLocation(1430829015000L));
+
+        assertEquals(1430829015000L, ExifUtils.getLocation(exif).getTime());
+    }
+
+    public void testTimePrefersDateTime() throws Exception {
+        // GPS fix is older than the capture
+        ExifUtils.setLocation(exif, createLocation(1430829015000L));
+        exif.setAttribute(ExifInterface.TAG_DATETIME, "2015:05:06 08:00:00");
+
+        long expected = new java.text.SimpleDateFormat("yyyy:MM:dd HH:mm:ss", java.util.Locale.US).parse("2015:05:06 08:00:00").getTime();
+
+        assertEquals(expected, ExifUtils.getLocation(exif).getTime());
+    }
+
+    public void testMalformedDateTimeFallsBackToGPSStamp() {
+        ExifUtils.setLocation(exif, createLocation(1430829015000L));
+        exif.setAttribute(ExifInterface.TAG_DATETIME, "not a date");
+
+        assertEquals(1430829015000L, ExifUtils.getLocation(exif).getTime());
+    }
+
+    public void testPlaceholderDateTimeIsUnknown() {
+        ExifUtils.setLocation(exif, createLocation(0));
+        exif.setAttribute(ExifInterface.TAG_DATETIME, "0000:00:00 00:00:00");
+
+        assertEquals(0, ExifUtils.getLocation(exif).getTime());
+    }
+
+    public void testInvalidDateTimeIsUnknown() {
+        ExifUtils.setLocation(exif, createLocation(0));
+        exif.setAttribute(ExifInterface.TAG_DATETIME, "2015:13:45 25:61:00");
+
+        assertEquals(0, ExifUtils.getLocation(exif).getTime());
+    }
+}
@@ -0,0 +1,75 @@
+package no.bouvet.snaploc;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class ImageHashIndexTest extends TestCase {
+    private static final int MAX_DISTANCE = 5;
+
+    private ImageHashIndex index;
+    private long[] hashes;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        index = new ImageHashIndex(MAX_DISTANCE);
+        hashes = new long[1000];
+
+        Random random = new Random(42);
+
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextLong();
+            assertEquals(i, index.add(hashes[i]));
+        }
+    }
+
+    public void testFindExact() {
+        for (int i = 0; i < hashes.length; i++) {
+            assertEquals(i, index.findNearest(hashes[i]));
+        }
+    }
+
+    public void testFindWithinDistanceInOneBlock() {
+        // All flipped bits in the lowest block, the other blocks match exactly
+        assertEquals(17, index.findNearest(hashes[17] ^ 0x1fL));
+    }
+
+    public void testFindWithinDistanceSpreadOverAllBlocks() {
+        // 5 flipped bits over 4 blocks, at least one block is only one bit off (pigeonhole)
+        long flipped = hashes[500] ^ 0x8000000100010001L ^ 0x2L;
+
+        assertEquals(MAX_DISTANCE, ImageHash.distance(hashes[500], flipped));
+        assertEquals(500, index.findNearest(flipped));
+    }
+
+    public void testFindNearestOfSeveral() {
+        int id = index.add(hashes[3] ^ 0x3L);
+
+        assertEquals(id, index.findNearest(hashes[3] ^ 0x1L ^ 0x2L ^ 0x4L));
+    }
+
+    public void testBeyondMaxDistance() {
+        // 8 flipped bits, 2 in each block
+        assertEquals(-1, index.findNearest(hashes[42] ^ 0x8001800180018001L));
+    }
+
+    public void testNoMatch() {
+        assertEquals(-1, index.findNearest(~hashes[0]));
+    }
+
+    public void testMaxDistanceOutOfRange() {
+        try {
+            new ImageHashIndex(8);
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testGet() {
+        assertEquals(hashes.length, index.size());
+        assertEquals(hashes[123], index.get(123));
+    }
+}
@@ -0,0 +1,127 @@
+package no.bouvet.snaploc;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class ImageHashStoreTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        directory = File.createTempFile("hashes-", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+
+        assertTrue(directory.delete());
+
+        super.tearDown();
+    }
+
+    private File createPhoto(final String name) throws IOException {
+        File photo = new File(directory, name);
+        assertTrue(photo.createNewFile());
+
+        return photo;
+    }
+
+    public void testEmpty() throws IOException {
+        ImageHashStore store = ImageHashStore.load(directory, 5);
+
+        assertEquals(0, store.size());
+        assertNull(store.findDuplicate(0x1234L));
+    }
+
+    public void testFindDuplicate() throws IOException {
+        ImageHashStore store = ImageHashStore.load(directory, 5);
+        store.add(createPhoto("a.jpg"), 0x1234L);
+
+        assertEquals("a.jpg", store.findDuplicate(0x1235L));
+        assertNull(store.findDuplicate(~0x1234L));
+    }
+
+    public void testPersisted() throws IOException {
+        ImageHashStore store = ImageHashStore.load(directory, 5);
+        store.add(createPhoto("a.jpg"), 0x1234L);
+        store.add(createPhoto("b.jpg"), 0xf0f0f0f0f0f0L);
+
+        ImageHashStore reloaded = ImageHashStore.load(directory, 5);
+
+        assertEquals(2, reloaded.size());
+        assertEquals("a.jpg", reloaded.findDuplicate(0x1234L));
+        assertEquals("b.jpg", reloaded.findDuplicate(0xf0f0f0f0f0f1L));
+    }
+
+    public void testDeletedPhotosSkipped() throws IOException {
+        ImageHashStore store = ImageHashStore.load(directory, 5);
+        File photo = createPhoto("a.jpg");
+        store.add(photo, 0x1234L);
+        assertTrue(photo.delete());
+
+        ImageHashStore reloaded = ImageHashStore.load(directory, 5);
+
+        assertEquals(0, reloaded.size());
+        assertNull(reloaded.findDuplicate(0x1234L));
+    }
+
+    private void appendToStore(final byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(new File(directory, "photo-hashes.dat"), true);
+
+        try {
+            out.write(bytes);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void assertTailDropped(final byte[] tail) throws IOException {
+        ImageHashStore store = ImageHashStore.load(directory, 5);
+        store.add(createPhoto("a.jpg"), 0x1234L);
+        appendToStore(tail);
+
+        ImageHashStore reloaded = ImageHashStore.load(directory, 5);
+        assertEquals(1, reloaded.size());
+
+        // Records added after the bad tail must survive the next load
+        reloaded.add(createPhoto("b.jpg"), 0xf0f0f0f0f0f0L);
+
+        ImageHashStore again = ImageHashStore.load(directory, 5);
+        assertEquals(2, again.size());
+        assertEquals("a.jpg", again.findDuplicate(0x1234L));
+        assertEquals("b.jpg", again.findDuplicate(0xf0f0f0f0f0f0L));
+    }
+
+    public void testTruncatedTailDropped() throws IOException {
+        // Name length says 5 bytes, but only one follows
+        assertTailDropped(new byte[] {0, 5, 'c'});
+    }
+
+    public void testCorruptTailDropped() throws IOException {
+        // Not valid (modified) UTF-8
+        assertTailDropped(new byte[] {0, 2, (byte) 0xff, (byte) 0xff, 0, 0, 0, 0, 0, 0, 0, 0});
+    }
+
+    public void testInMemoryOnly() throws IOException {
+        ImageHashStore store = ImageHashStore.load(null, 5);
+        store.add(new File("a.jpg"), 0x1234L);
+
+        assertEquals("a.jpg", store.findDuplicate(0x1234L));
+    }
+}
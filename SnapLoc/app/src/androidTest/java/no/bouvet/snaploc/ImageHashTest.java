@@ -0,0 +1,67 @@
+package no.bouvet.snaploc;
+
+import junit.framework.TestCase;
+
+public class ImageHashTest extends TestCase {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    // Smooth gradients, with some fine (one pixel) checkerboard noise on top
+    private static int[] createImage(final int shift) {
+        int[] argb = new int[WIDTH * HEIGHT];
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int sx = x + shift;
+                int grey = (int) (127 + 100 * Math.sin(sx / 20.0) * Math.cos(y / 15.0)) + ((sx + y) % 2 == 0 ? 20 : -20);
+                grey = Math.max(0, Math.min(255, grey));
+
+                argb[y * WIDTH + x] = 0xff000000 | grey << 16 | grey << 8 | grey;
+            }
+        }
+
+        return argb;
+    }
+
+    public void testUniformImage() {
+        int[] argb = new int[WIDTH * HEIGHT];
+        java.util.Arrays.fill(argb, 0xff808080);
+
+        assertEquals(0, ImageHash.dHash(argb, WIDTH, HEIGHT));
+    }
+
+    public void testHorizontalGradient() {
+        int[] argb = new int[WIDTH * HEIGHT];
+
+        for (int i = 0; i < argb.length; i++) {
+            int grey = 255 - (i % WIDTH) * 255 / WIDTH;
+            argb[i] = 0xff000000 | grey << 16 | grey << 8 | grey;
+        }
+
+        // Every block is brighter than its right neighbour
+        assertEquals(-1L, ImageHash.dHash(argb, WIDTH, HEIGHT));
+    }
+
+    public void testStableForSmallShifts() {
+        long hash = ImageHash.dHash(createImage(0), WIDTH, HEIGHT);
+
+        for (int shift = 1; shift <= 3; shift++) {
+            assertTrue(ImageHash.distance(hash, ImageHash.dHash(createImage(shift), WIDTH, HEIGHT)) <= 5);
+        }
+    }
+
+    public void testDistance() {
+        assertEquals(0, ImageHash.distance(0x1234L, 0x1234L));
+        assertEquals(64, ImageHash.distance(0L, -1L));
+        assertEquals(3, ImageHash.distance(0x7L, 0L));
+    }
+
+    public void testTooSmall() {
+        try {
+            ImageHash.dHash(new int[8 * 8], 8, 8);
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package no.bouvet.snaploc;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+public class PhotoExporterTest extends TestCase {
+    // Records whether it was closed, and optionally fails all writes
+    private static class TrackingOutputStream extends ByteArrayOutputStream {
+        private final boolean failing;
+        private boolean closed;
+
+        TrackingOutputStream(final boolean failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public synchronized void write(final int b) {
+            if (failing) {
+                throw new IllegalStateException("Write failed");
+            }
+
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) {
+            if (failing) {
+                throw new IllegalStateException("Write failed");
+            }
+
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    // 2015-05-05T12:30:15Z
+    private static final long TIME = 1430829015000L;
+
+    // Two photos, the second with characters that need escaping, no time, and coordinates close to zero
+    private static String writeRecords(final PhotoExporter.Format format) {
+        StringWriter string = new StringWriter();
+        PrintWriter writer = new PrintWriter(string);
+
+        PhotoExporter.RecordWriter records = PhotoExporter.createWriter(format, writer);
+        records.writeHeader();
+        records.visit(new File("/photos/a.jpg"), TIME, 59.9, 10.75);
+        records.visit(new File("/photos/\"<&b.jpg"), 0, 0.0004, -0.0002);
+        records.writeFooter();
+        writer.flush();
+
+        return string.toString();
+    }
+
+    public void testKMLRecords() throws Exception {
+        String kml = writeRecords(PhotoExporter.Format.KML);
+
+        assertTrue(kml, kml.contains("<Placemark><name>a.jpg</name><description>/photos/a.jpg</description>"
+                + "<TimeStamp><when>2015-05-05T12:30:15Z</when></TimeStamp>"
+                + "<Point><coordinates>10.7500000,59.9000000</coordinates></Point></Placemark>\n"
+                + "<Placemark><name>&quot;&lt;&amp;b.jpg</name><description>/photos/&quot;&lt;&amp;b.jpg</description>"
+                + "<Point><coordinates>-0.0002000,0.0004000</coordinates></Point></Placemark>\n"));
+
+        // Well-formed, with names unescaped by the parser
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(kml.getBytes("UTF-8")));
+        NodeList placemarks = document.getElementsByTagName("Placemark");
+
+        assertEquals(2, placemarks.getLength());
+        assertEquals("\"<&b.jpg", document.getElementsByTagName("name").item(2).getTextContent());
+    }
+
+    public void testGeoJSONRecords() {
+        String json = writeRecords(PhotoExporter.Format.GEOJSON);
+
+        assertEquals("{\"type\":\"FeatureCollection\",\"features\":[\n"
+                + "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.7500000,59.9000000]},"
+                + "\"properties\":{\"path\":\"/photos/a.jpg\",\"time\":\"2015-05-05T12:30:15Z\"}},\n"
+                + "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[-0.0002000,0.0004000]},"
+                + "\"properties\":{\"path\":\"/photos/\\\"<&b.jpg\"}}"
+                + "\n]}\n", json);
+    }
+
+    public void testExportPlain() throws IOException {
+        TrackingOutputStream stream = new TrackingOutputStream(false);
+
+        assertEquals(0, PhotoExporter.export(null, stream, PhotoExporter.Format.GEOJSON, false));
+        assertTrue(stream.closed);
+
+        String json = stream.toString("UTF-8");
+        assertTrue(json, json.contains("\"FeatureCollection\""));
+    }
+
+    public void testExportZipped() throws IOException {
+        TrackingOutputStream stream = new TrackingOutputStream(false);
+
+        assertEquals(0, PhotoExporter.export(null, stream, PhotoExporter.Format.KML, true));
+        assertTrue(stream.closed);
+
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(stream.toByteArray()));
+        ZipEntry entry = zip.getNextEntry();
+        assertNotNull(entry);
+        assertEquals("doc.kml", entry.getName());
+
+        ByteArrayOutputStream kml = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+
+        for (int read; (read = zip.read(buffer)) > 0; ) {
+            kml.write(buffer, 0, read);
+        }
+
+        assertTrue(kml.toString("UTF-8").contains("<kml"));
+        assertNull(zip.getNextEntry());
+    }
+
+    public void testStreamClosedOnZipFailure() throws IOException {
+        TrackingOutputStream stream = new TrackingOutputStream(true);
+
+        try {
+            PhotoExporter.export(null, stream, PhotoExporter.Format.KML, true);
+            fail("Expected write to fail");
+        }
+        catch (IllegalStateException expected) {
+        }
+
+        assertTrue(stream.closed);
+    }
+
+    public void testExtensions() {
+        assertEquals("kml", PhotoExporter.Format.KML.getExtension(false));
+        assertEquals("kmz", PhotoExporter.Format.KML.getExtension(true));
+        assertEquals("geojson", PhotoExporter.Format.GEOJSON.getExtension(false));
+    }
+}
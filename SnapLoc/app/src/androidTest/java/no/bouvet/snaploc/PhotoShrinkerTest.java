@@ -0,0 +1,141 @@
+package no.bouvet.snaploc;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.location.Location;
+import android.media.ExifInterface;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class PhotoShrinkerTest extends TestCase {
+    private static final long MB = 1024 * 1024;
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        directory = File.createTempFile("shrink-", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+
+        assertTrue(directory.delete());
+
+        super.tearDown();
+    }
+
+    private File createPhoto(final String name, final int width, final int height) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+
+        File photo = new File(directory, name);
+        OutputStream out = new FileOutputStream(photo);
+
+        try {
+            assertTrue(bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out));
+        }
+        finally {
+            out.close();
+            bitmap.recycle();
+        }
+
+        return photo;
+    }
+
+    public void testShrinkKeepsGPSAndTimeTags() throws Exception {
+        File photo = createPhoto("a.jpg", 400, 300);
+
+        // Geo-tag south west, to also catch sign errors
+        Location location = new Location("test");
+        location.setLatitude(-33.5);
+        location.setLongitude(-70.65);
+        location.setTime(1430829015000L); // 2015-05-05T12:30:15Z
+
+        ExifInterface exif = new ExifInterface(photo.getAbsolutePath());
+        ExifUtils.setLocation(exif, location);
+        exif.setAttribute(ExifInterface.TAG_DATETIME, "2015:05:06 08:00:00");
+        exif.saveAttributes();
+
+        ExifInterface original = new ExifInterface(photo.getAbsolutePath());
+
+        assertEquals(1, new PhotoShrinker(200, 85).shrink(directory));
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photo.getAbsolutePath(), options);
+
+        assertEquals(200, options.outWidth);
+        assertEquals(150, options.outHeight);
+
+        ExifInterface shrunk = new ExifInterface(photo.getAbsolutePath());
+
+        for (String tag : new String[] {
+                ExifInterface.TAG_GPS_LATITUDE, ExifInterface.TAG_GPS_LATITUDE_REF,
+                ExifInterface.TAG_GPS_LONGITUDE, ExifInterface.TAG_GPS_LONGITUDE_REF,
+                ExifInterface.TAG_GPS_DATESTAMP, ExifInterface.TAG_GPS_TIMESTAMP,
+                ExifInterface.TAG_DATETIME
+        }) {
+            assertNotNull(tag, original.getAttribute(tag));
+            assertEquals(tag, original.getAttribute(tag), shrunk.getAttribute(tag));
+        }
+
+        Location shrunkLocation = ExifUtils.getLocation(shrunk);
+
+        assertNotNull(shrunkLocation);
+        assertEquals(-33.5, shrunkLocation.getLatitude(), 1e-6);
+        assertEquals(-70.65, shrunkLocation.getLongitude(), 1e-6);
+        assertEquals("2015:05:06 08:00:00", shrunk.getAttribute(ExifInterface.TAG_DATETIME));
+        assertFalse(new File(directory, "a.jpg.tmp").exists());
+    }
+
+    public void testShrinkSkipsSmallPhotos() throws Exception {
+        File photo = createPhoto("a.jpg", 200, 150);
+        long length = photo.length();
+
+        assertEquals(0, new PhotoShrinker(200, 85).shrink(directory));
+        assertEquals(length, photo.length());
+    }
+
+    public void testSampleSizeKeepsTargetSize() {
+        // 8 MP, unlimited memory, decoded at full size, as halving would go below the target
+        assertEquals(1, PhotoShrinker.getSampleSize(3264, 2448, 2048, Long.MAX_VALUE));
+        assertEquals(2, PhotoShrinker.getSampleSize(8000, 6000, 2048, Long.MAX_VALUE));
+        assertEquals(4, PhotoShrinker.getSampleSize(8192, 6144, 2048, Long.MAX_VALUE));
+    }
+
+    public void testSampleSizeFitsBudget() {
+        // 8 MP as RGB 565 is ~16 MB
+        assertEquals(1, PhotoShrinker.getSampleSize(3264, 2448, 2048, 16 * MB));
+        assertEquals(2, PhotoShrinker.getSampleSize(3264, 2448, 2048, 8 * MB));
+        assertEquals(4, PhotoShrinker.getSampleSize(3264, 2448, 2048, 1 * MB));
+
+        assertTrue(PhotoShrinker.getBitmapBytes(3264, 2448, 4) <= MB);
+    }
+
+    public void testBitmapBytesRoundsUp() {
+        assertEquals(2 * 2 * 2, PhotoShrinker.getBitmapBytes(3, 3, 2));
+        assertEquals(3264 * 2448 * 2, PhotoShrinker.getBitmapBytes(3264, 2448, 1));
+    }
+
+    public void testSampleSizeTinyBudget() {
+        // Never subsamples below one pixel
+        assertEquals(4096, PhotoShrinker.getSampleSize(4096, 4096, 2048, 0));
+    }
+}
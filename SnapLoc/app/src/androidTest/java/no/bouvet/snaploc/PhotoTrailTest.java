@@ -0,0 +1,47 @@
+package no.bouvet.snaploc;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class PhotoTrailTest extends TestCase {
+    public void testSortByTime() {
+        long[] times = {30, 10, 20, 10, 0};
+
+        assertTrue(Arrays.equals(new int[] {4, 1, 3, 2, 0}, PhotoTrail.sortByTime(times, times.length)));
+    }
+
+    public void testSortByTimeWideRange() {
+        // Placeholder dates and far future dates, should still sort correctly
+        long[] times = {Long.MAX_VALUE, -62170156800000L, 1430829015000L, Long.MIN_VALUE, 0};
+
+        assertTrue(Arrays.equals(new int[] {3, 1, 4, 2, 0}, PhotoTrail.sortByTime(times, times.length)));
+    }
+
+    public void testSortByTimeRandom() {
+        Random random = new Random(1);
+        long[] times = new long[1001];
+
+        for (int i = 0; i < times.length; i++) {
+            times[i] = random.nextInt(100) * 1000L;
+        }
+
+        int[] indexes = PhotoTrail.sortByTime(times, times.length - 1);
+
+        assertEquals(times.length - 1, indexes.length);
+
+        for (int i = 1; i < indexes.length; i++) {
+            assertTrue(times[indexes[i - 1]] <= times[indexes[i]]);
+
+            // Stable
+            if (times[indexes[i - 1]] == times[indexes[i]]) {
+                assertTrue(indexes[i - 1] < indexes[i]);
+            }
+        }
+    }
+
+    public void testSortByTimeEmpty() {
+        assertEquals(0, PhotoTrail.sortByTime(new long[0], 0).length);
+    }
+}
@@ -0,0 +1,123 @@
+package no.bouvet.snaploc;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class PolylineSimplifierTest extends TestCase {
+    // Plain recursive Douglas-Peucker, for reference
+    private static void douglasPeucker(final double[] x, final double[] y, final int start, final int end,
+                                       final double tolerance, final boolean[] keep) {
+        if (end - start < 2) {
+            return;
+        }
+
+        int farthest = start;
+        double maxDistance = -1;
+
+        for (int i = start + 1; i < end; i++) {
+            double distance = segmentDistance(x[i], y[i], x[start], y[start], x[end], y[end]);
+
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                farthest = i;
+            }
+        }
+
+        if (maxDistance > tolerance) {
+            keep[farthest] = true;
+            douglasPeucker(x, y, start, farthest, tolerance, keep);
+            douglasPeucker(x, y, farthest, end, tolerance, keep);
+        }
+    }
+
+    private static double segmentDistance(final double px, final double py, final double ax, final double ay, final double bx, final double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq > 0 ? Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSq)) : 0;
+
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+
+    private static int[] reference(final double[] x, final double[] y, final double tolerance) {
+        boolean[] keep = new boolean[x.length];
+        keep[0] = true;
+        keep[x.length - 1] = true;
+        douglasPeucker(x, y, 0, x.length - 1, tolerance, keep);
+
+        int[] indexes = new int[x.length];
+        int count = 0;
+
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                indexes[count++] = i;
+            }
+        }
+
+        return Arrays.copyOf(indexes, count);
+    }
+
+    public void testIdenticalToDouglasPeucker() {
+        Random random = new Random(7);
+
+        for (int run = 0; run < 200; run++) {
+            int length = 2 + random.nextInt(300);
+            double[] x = new double[length];
+            double[] y = new double[length];
+
+            // Random walk, similar to a trail
+            for (int i = 1; i < length; i++) {
+                x[i] = x[i - 1] + random.nextGaussian();
+                y[i] = y[i - 1] + random.nextGaussian();
+            }
+
+            double[] significance = PolylineSimplifier.significance(x, y);
+
+            for (double tolerance : new double[] {0, 0.1, 0.5, 1, 2, 5, 10}) {
+                int[] expected = reference(x, y, tolerance);
+                int[] actual = PolylineSimplifier.simplify(significance, tolerance);
+
+                assertTrue("run " + run + ", tolerance " + tolerance, Arrays.equals(expected, actual));
+            }
+        }
+    }
+
+    public void testEndPointsAlwaysKept() {
+        double[] x = {0, 1, 2, 3};
+        double[] y = {0, 0, 0, 0};
+
+        int[] indexes = PolylineSimplifier.simplify(PolylineSimplifier.significance(x, y), 1000);
+
+        assertTrue(Arrays.equals(new int[] {0, 3}, indexes));
+    }
+
+    public void testCollinearPointsRemoved() {
+        double[] x = {0, 1, 2, 3, 3, 3};
+        double[] y = {0, 0, 0, 0, 1, 2};
+
+        int[] indexes = PolylineSimplifier.simplify(PolylineSimplifier.significance(x, y), 0.01);
+
+        assertTrue(Arrays.equals(new int[] {0, 3, 5}, indexes));
+    }
+
+    public void testSinglePoint() {
+        double[] significance = PolylineSimplifier.significance(new double[] {1}, new double[] {2});
+
+        assertTrue(Arrays.equals(new int[] {0}, PolylineSimplifier.simplify(significance, 1)));
+    }
+
+    public void testEmpty() {
+        assertEquals(0, PolylineSimplifier.significance(new double[0], new double[0]).length);
+    }
+
+    public void testDifferentLengths() {
+        try {
+            PolylineSimplifier.significance(new double[2], new double[3]);
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package no.bouvet.snaploc;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TripSegmenterTest extends TestCase {
+    private static final double STAY_DISTANCE = 200;
+    private static final long MINUTE = 60 * 1000;
+    private static final long STAY_TIME = 20 * MINUTE;
+    private static final long TRIP_GAP = 8 * 60 * MINUTE;
+
+    private TripSegmenter segmenter;
+    private RecordingListener listener;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        segmenter = new TripSegmenter(STAY_DISTANCE, STAY_TIME, TRIP_GAP);
+        listener = new RecordingListener();
+    }
+
+    private static class RecordingListener implements TripSegmenter.Listener {
+        final List<String> events = new ArrayList<>();
+        final List<double[]> stays = new ArrayList<>();
+
+        @Override
+        public void onTripStart(final long time) {
+            events.add("start " + time);
+        }
+
+        @Override
+        public void onStayPoint(final long arrival, final long departure, final double latitude, final double longitude, final int photos) {
+            events.add("stay " + arrival + "-" + departure + " " + photos);
+            stays.add(new double[] {latitude, longitude});
+        }
+
+        @Override
+        public void onTripEnd(final long start, final long end, final int photos) {
+            events.add("end " + start + "-" + end + " " + photos);
+        }
+    }
+
+    public void testDistance() {
+        // One degree of latitude is about 111 km
+        assertEquals(111195, TripSegmenter.distance(59, 10, 60, 10), 100);
+        assertEquals(0, TripSegmenter.distance(59.9, 10.75, 59.9, 10.75), 0);
+    }
+
+    public void testDistanceAcrossAntiMeridian() {
+        assertEquals(TripSegmenter.distance(0, -0.01, 0, 0.01), TripSegmenter.distance(0, 179.99, 0, -179.99), 1e-6);
+    }
+
+    public void testStayPoint() {
+        // 30 minutes within a few meters, then moving away
+        for (int i = 0; i <= 6; i++) {
+            segmenter.add(i * 5 * MINUTE, 59.9 + i * 1e-5, 10.75, listener);
+        }
+
+        segmenter.add(31 * MINUTE, 59.95, 10.75, listener);
+        segmenter.flush(listener);
+
+        assertEquals(3, listener.events.size());
+        assertEquals("start 0", listener.events.get(0));
+        assertEquals("stay 0-" + 30 * MINUTE + " 7", listener.events.get(1));
+        assertEquals("end 0-" + 31 * MINUTE + " 8", listener.events.get(2));
+        assertEquals(59.90003, listener.stays.get(0)[0], 1e-9);
+        assertEquals(10.75, listener.stays.get(0)[1], 1e-9);
+    }
+
+    public void testTooShortForStayPoint() {
+        segmenter.add(0, 59.9, 10.75, listener);
+        segmenter.add(STAY_TIME - 1, 59.9, 10.75, listener);
+        segmenter.flush(listener);
+
+        assertEquals(2, listener.events.size());
+        assertEquals("end 0-" + (STAY_TIME - 1) + " 2", listener.events.get(1));
+    }
+
+    public void testTooFarForStayPoint() {
+        // Moving 500 meters between each photo
+        for (int i = 0; i < 10; i++) {
+            segmenter.add(i * 10 * MINUTE, 59.9 + i * 0.0045, 10.75, listener);
+        }
+
+        segmenter.flush(listener);
+
+        assertEquals(2, listener.events.size());
+    }
+
+    public void testTripGap() {
+        segmenter.add(0, 59.9, 10.75, listener);
+        segmenter.add(TRIP_GAP - 1, 59.9, 10.75, listener);
+        segmenter.add(2 * TRIP_GAP, 60.0, 11.0, listener);
+
+        assertTrue(segmenter.isInTrip());
+        assertEquals(2 * TRIP_GAP, segmenter.getTripStart());
+        assertEquals(1, segmenter.getTripPhotos());
+
+        assertEquals("start 0", listener.events.get(0));
+        assertEquals("stay 0-" + (TRIP_GAP - 1) + " 2", listener.events.get(1));
+        assertEquals("end 0-" + (TRIP_GAP - 1) + " 2", listener.events.get(2));
+        assertEquals("start " + 2 * TRIP_GAP, listener.events.get(3));
+    }
+
+    public void testOutOfOrder() {
+        segmenter.add(MINUTE, 59.9, 10.75, listener);
+
+        try {
+            segmenter.add(0, 59.9, 10.75, listener);
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testSameTime() {
+        segmenter.add(MINUTE, 59.9, 10.75, listener);
+        segmenter.add(MINUTE, 59.9, 10.75, listener);
+
+        assertEquals(2, segmenter.getTripPhotos());
+    }
+
+    public void testIncremental() {
+        segmenter.add(0, 59.9, 10.75, null);
+        segmenter.add(STAY_TIME, 59.9, 10.75, null);
+
+        // Peeking reports the open stay point, without closing it or the trip
+        segmenter.peek(listener);
+
+        assertEquals(1, listener.events.size());
+        assertEquals("stay 0-" + STAY_TIME + " 2", listener.events.get(0));
+        assertTrue(segmenter.isInTrip());
+
+        // A new capture shortly after continues the same trip and stay point
+        listener.events.clear();
+        segmenter.add(STAY_TIME + MINUTE, 59.9, 10.75, listener);
+        segmenter.peek(listener);
+
+        assertEquals(1, listener.events.size());
+        assertEquals("stay 0-" + (STAY_TIME + MINUTE) + " 3", listener.events.get(0));
+        assertEquals(0, segmenter.getTripStart());
+        assertEquals(3, segmenter.getTripPhotos());
+    }
+
+    public void testStayPointAcrossAntiMeridian() {
+        // Photos on both sides of the anti-meridian, less than 200 meters apart
+        double[] longitudes = {179.9995, -179.9995, 179.999, -179.9995};
+
+        for (int i = 0; i < longitudes.length; i++) {
+            segmenter.add(i * 10 * MINUTE, -16.5, longitudes[i], listener);
+        }
+
+        segmenter.flush(listener);
+
+        assertEquals(3, listener.events.size());
+        assertEquals("stay 0-" + 30 * MINUTE + " 4", listener.events.get(1));
+        assertEquals(180, Math.abs(listener.stays.get(0)[1]), 1e-3);
+    }
+
+    public void testCreateDefault() {
+        TripSegmenter defaults = TripSegmenter.createDefault();
+
+        // Same thresholds as this test uses
+        defaults.add(0, 59.9, 10.75, listener);
+        defaults.add(STAY_TIME, 59.9, 10.75, listener);
+        defaults.add(STAY_TIME + TRIP_GAP, 59.9, 10.75, listener);
+
+        assertEquals(4, listener.events.size());
+        assertEquals("stay 0-" + STAY_TIME + " 2", listener.events.get(1));
+        assertEquals("end 0-" + STAY_TIME + " 2", listener.events.get(2));
+        assertEquals("start " + (STAY_TIME + TRIP_GAP), listener.events.get(3));
+    }
+
+    public void testFlushWithoutTrip() {
+        segmenter.flush(listener);
+
+        assertEquals(0, listener.events.size());
+        assertFalse(segmenter.isInTrip());
+    }
+}
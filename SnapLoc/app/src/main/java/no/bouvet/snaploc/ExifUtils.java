@@ -3,6 +3,13 @@ package no.bouvet.snaploc;
 import android.location.Location;
 import android.media.ExifInterface;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by harald.kuhr on 05/05/15.
  */
@@ -20,13 +27,80 @@ public final class ExifUtils {
         return degree + (minute / 60) + (second / 3600);
     }
 
+    // Converts degree to EXIF GPS pos, always positive, as the sign is given by the reference tag
+    private static String convertToDegreeMinuteSecond(final double degree) {
+        double value = Math.abs(degree);
+
+        int num1 = (int) Math.floor(value);
+        int num2 = (int) Math.floor((value - num1) * 60);
+        long num3 = Math.round((value - ((double) num1 + ((double) num2 / 60))) * 3600000);
+
+        return num1 + "/1," + num2 + "/1," + num3 + "/1000";
+    }
+
     private static double parseRational(final String rational) {
         String[] deg = rational.split("/", 2);
         return Double.parseDouble(deg[0]) / Double.parseDouble(deg[1]);
     }
 
+    // Gets the time the image was taken, in millis since epoch, or 0 if unknown.
+    // Prefers the EXIF date time (time of capture, in local time), as the GPS date and time stamp (UTC) is
+    // the time of the location fix, which may be an older, cached fix for images geo-tagged by us.
+    private static long getTime(final ExifInterface exif) {
+        long time = parseDateTime(exif.getAttribute(ExifInterface.TAG_DATETIME));
+
+        if (time == 0) {
+            time = parseGPSDateTime(exif.getAttribute(ExifInterface.TAG_GPS_DATESTAMP), exif.getAttribute(ExifInterface.TAG_GPS_TIMESTAMP));
+        }
+
+        return time;
+    }
+
+    // Rejects placeholders like "0000:00:00 00:00:00", and obviously wrong clocks
+    private static long plausibleTime(final long time) {
+        return time > 0 && time < System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1) ? time : 0;
+    }
+
+    private static long parseDateTime(final String dateTime) {
+        if (dateTime != null) {
+            try {
+                SimpleDateFormat format = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US);
+                format.setLenient(false);
+
+                return plausibleTime(format.parse(dateTime).getTime());
+            }
+            catch (ParseException e) {
+                // Malformed, treat as unknown time
+            }
+        }
+
+        return 0;
+    }
+
+    private static long parseGPSDateTime(final String gpsDate, final String gpsTime) {
+        if (gpsDate != null && gpsTime != null) {
+            try {
+                String[] hms = gpsTime.split(",", 3);
+                long seconds = Math.round(parseRational(hms[0]) * 3600 + parseRational(hms[1]) * 60 + parseRational(hms[2]));
+
+                SimpleDateFormat format = new SimpleDateFormat("yyyy:MM:dd", Locale.US);
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                format.setLenient(false);
+
+                return plausibleTime(format.parse(gpsDate).getTime() + seconds * 1000);
+            }
+            catch (ParseException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // Malformed or missing parts, treat as unknown time
+            }
+        }
+
+        return 0;
+    }
+
     /**
      * Get GPS location from image.
+     * The time of the location is the time the image was taken (EXIF date time), or if missing,
+     * the time of the GPS fix (GPS date and time stamp), or {@code 0} if neither is present.
      *
      * @param exif Exif data from image.
      *
@@ -38,7 +112,7 @@ public final class ExifUtils {
         String lat = exif.getAttribute(ExifInterface.TAG_GPS_LATITUDE);
         String lon = exif.getAttribute(ExifInterface.TAG_GPS_LONGITUDE);
 
-        // TODO: Altitude, timestamp etc...
+        // TODO: Altitude etc...
 
         if (lat != null && lon != null) {
             double latitude = "N".equals(latRef) ? convertToDegree(lat) : -convertToDegree(lat);
@@ -48,6 +122,7 @@ public final class ExifUtils {
 
             location.setLatitude(latitude);
             location.setLongitude(longitude);
+            location.setTime(getTime(exif));
 
             return location;
         }
@@ -57,6 +132,8 @@ public final class ExifUtils {
 
     /**
      * Geo-tag an image (set/update GPS location).
+     * The GPS date and time stamp is also set to the time of the location fix, if the location has a time.
+     * This is not necessarily the time the image was taken.
      *
      * @param exif Exif data from image.
      * @param location the new GPS location.
@@ -65,28 +142,33 @@ public final class ExifUtils {
         double latitude = location.getLatitude();
         double longitude = location.getLongitude();
 
-        int num1Lat = (int) Math.floor(latitude);
-        int num2Lat = (int) Math.floor((latitude - num1Lat) * 60);
-        double num3Lat = (latitude - ((double) num1Lat + ((double) num2Lat / 60))) * 3600000;
+        exif.setAttribute(ExifInterface.TAG_GPS_LATITUDE, convertToDegreeMinuteSecond(latitude));
+        exif.setAttribute(ExifInterface.TAG_GPS_LONGITUDE, convertToDegreeMinuteSecond(longitude));
 
-        int num1Lon = (int) Math.floor(longitude);
-        int num2Lon = (int) Math.floor((longitude - num1Lon) * 60);
-        double num3Lon = (longitude - ((double) num1Lon + ((double) num2Lon / 60))) * 3600000;
-
-        exif.setAttribute(ExifInterface.TAG_GPS_LATITUDE, num1Lat + "/1," + num2Lat + "/1," + num3Lat + "/1000");
-        exif.setAttribute(ExifInterface.TAG_GPS_LONGITUDE, num1Lon + "/1," + num2Lon + "/1," + num3Lon + "/1000");
-
-        if (latitude > 0) {
+        if (latitude >= 0) {
             exif.setAttribute(ExifInterface.TAG_GPS_LATITUDE_REF, "N");
         } else {
             exif.setAttribute(ExifInterface.TAG_GPS_LATITUDE_REF, "S");
         }
 
-        if (longitude > 0) {
+        if (longitude >= 0) {
             exif.setAttribute(ExifInterface.TAG_GPS_LONGITUDE_REF, "E");
         } else {
             exif.setAttribute(ExifInterface.TAG_GPS_LONGITUDE_REF, "W");
         }
+
+        long time = location.getTime();
+
+        if (time != 0) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy:MM:dd", Locale.US);
+            SimpleDateFormat timeFormat = new SimpleDateFormat("H/1,m/1,s/1", Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+            Date date = new Date(time);
+            exif.setAttribute(ExifInterface.TAG_GPS_DATESTAMP, dateFormat.format(date));
+            exif.setAttribute(ExifInterface.TAG_GPS_TIMESTAMP, timeFormat.format(date));
+        }
     }
 
 }
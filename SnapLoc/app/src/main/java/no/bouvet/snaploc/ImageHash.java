@@ -0,0 +1,119 @@
+package no.bouvet.snaploc;
+
+import android.graphics.Bitmap;
+
+/**
+ * Perceptual image hashing, for detecting near-duplicate photos (ie. burst captures).
+ *
+ * @see <a href="http://www.hackerfactor.com/blog/?/archives/529-Kind-of-Like-That.html">Kind of Like That (dHash)</a>
+ */
+public final class ImageHash {
+    private ImageHash() {}
+
+    // dHash compares each block to its right neighbour, in a 9x8 grey scale image => 64 bits
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+
+    /**
+     * Computes the difference hash (dHash) of a bitmap.
+     * The bitmap should preferably be an already downsampled thumbnail, to keep reading pixels cheap.
+     *
+     * @param bitmap the image to hash.
+     *
+     * @return a 64 bit perceptual hash.
+     */
+    public static long dHash(final Bitmap bitmap) {
+        Bitmap source = bitmap;
+
+        // Tiny images are scaled up, so every block has at least one pixel
+        if (bitmap.getWidth() < HASH_WIDTH || bitmap.getHeight() < HASH_HEIGHT) {
+            source = Bitmap.createScaledBitmap(bitmap, HASH_WIDTH, HASH_HEIGHT, false);
+        }
+
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        int[] pixels = new int[width * height];
+        source.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        if (source != bitmap) {
+            source.recycle();
+        }
+
+        return dHash(pixels, width, height);
+    }
+
+    /**
+     * Computes the difference hash (dHash) of packed ARGB pixels.
+     * <p/>
+     * The image is reduced to 9x8 by averaging the luminance over blocks of pixels.
+     * Unlike bilinear scaling, which only samples a few pixels per output pixel, every pixel contributes,
+     * so the hash is stable against small shifts between (burst) frames.
+     *
+     * @param argb packed ARGB pixels, in row major order.
+     * @param width the image width, must be at least 9.
+     * @param height the image height, must be at least 8.
+     *
+     * @return a 64 bit perceptual hash.
+     */
+    static long dHash(final int[] argb, final int width, final int height) {
+        if (width < HASH_WIDTH || height < HASH_HEIGHT) {
+            throw new IllegalArgumentException("Image must be at least " + HASH_WIDTH + "x" + HASH_HEIGHT + ": " + width + "x" + height);
+        }
+        if (argb.length < width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " pixels: " + argb.length);
+        }
+
+        long[] sums = new long[HASH_WIDTH * HASH_HEIGHT];
+        int[] counts = new int[HASH_WIDTH * HASH_HEIGHT];
+
+        for (int y = 0; y < height; y++) {
+            int blockOffset = (y * HASH_HEIGHT / height) * HASH_WIDTH;
+            int offset = y * width;
+
+            for (int x = 0; x < width; x++) {
+                int block = blockOffset + x * HASH_WIDTH / width;
+                sums[block] += luminance(argb[offset + x]);
+                counts[block]++;
+            }
+        }
+
+        long hash = 0;
+
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            int offset = y * HASH_WIDTH;
+
+            for (int x = 1; x < HASH_WIDTH; x++) {
+                int left = offset + x - 1;
+                int right = offset + x;
+
+                // Compare block averages, without dividing: left / leftCount > right / rightCount
+                boolean brighter = sums[left] * counts[right] > sums[right] * counts[left];
+                hash = (hash << 1) | (brighter ? 1 : 0);
+            }
+        }
+
+        return hash;
+    }
+
+    // Integer approximation of Rec. 601 luma (0.299 R + 0.587 G + 0.114 B)
+    private static int luminance(final int argb) {
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+
+        return (r * 77 + g * 150 + b * 29) >> 8;
+    }
+
+    /**
+     * Gets the Hamming distance (number of differing bits) between two hashes.
+     *
+     * @param hash1 first hash.
+     * @param hash2 second hash.
+     *
+     * @return the Hamming distance, in the range {@code [0, 64]}.
+     */
+    public static int distance(final long hash1, final long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+}
@@ -0,0 +1,146 @@
+package no.bouvet.snaploc;
+
+import java.util.Arrays;
+
+/**
+ * Multi-index hash table for fast Hamming distance lookups of 64 bit perceptual hashes.
+ * <p/>
+ * Each hash is split into four 16 bit blocks, each indexed in a separate table.
+ * If two hashes are within distance {@code r}, at least one of the blocks must be within
+ * distance {@code r / 4} (the pigeonhole principle), so we only need to probe a few buckets
+ * per block, instead of scanning all hashes.
+ * <p/>
+ * Not thread safe.
+ *
+ * @see <a href="http://www.cs.toronto.edu/~norouzi/research/papers/multi_index_hashing.pdf">Fast Search in Hamming Space with Multi-Index Hashing</a>
+ */
+public class ImageHashIndex {
+    private static final int BLOCKS = 4;
+    private static final int BLOCK_BITS = 64 / BLOCKS;
+    private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+
+    private static final int NONE = -1;
+
+    private final int maxDistance;
+    private final int blockDistance;
+
+    // Bucket heads per block, and "next" links per block, forming linked lists of hash ids
+    private final int[][] heads = new int[BLOCKS][1 << BLOCK_BITS];
+    private final int[][] next = new int[BLOCKS][];
+
+    private long[] hashes;
+    private int size;
+
+    /**
+     * Creates a new index.
+     *
+     * @param maxDistance the maximum Hamming distance for two hashes to be considered near-duplicates,
+     *                    must be in the range {@code [0, 7]}.
+     */
+    public ImageHashIndex(final int maxDistance) {
+        if (maxDistance < 0 || maxDistance >= BLOCKS * 2) {
+            throw new IllegalArgumentException("maxDistance must be in range [0, " + (BLOCKS * 2 - 1) + "]: " + maxDistance);
+        }
+
+        this.maxDistance = maxDistance;
+        blockDistance = maxDistance / BLOCKS; // Either 0 or 1
+
+        for (int b = 0; b < BLOCKS; b++) {
+            Arrays.fill(heads[b], NONE);
+            next[b] = new int[16];
+        }
+
+        hashes = new long[16];
+    }
+
+    private static int block(final long hash, final int block) {
+        return (int) (hash >>> (block * BLOCK_BITS)) & BLOCK_MASK;
+    }
+
+    /**
+     * Adds a hash to the index.
+     *
+     * @param hash the hash to add.
+     *
+     * @return the id of the added hash.
+     */
+    public int add(final long hash) {
+        if (size == hashes.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+
+            for (int b = 0; b < BLOCKS; b++) {
+                next[b] = Arrays.copyOf(next[b], capacity);
+            }
+        }
+
+        int id = size++;
+        hashes[id] = hash;
+
+        for (int b = 0; b < BLOCKS; b++) {
+            int key = block(hash, b);
+            next[b][id] = heads[b][key];
+            heads[b][key] = id;
+        }
+
+        return id;
+    }
+
+    /**
+     * Finds the closest hash in the index, within the maximum distance of this index.
+     *
+     * @param hash the hash to look up.
+     *
+     * @return the id of the closest hash, or {@code -1} if there is no hash within the maximum distance.
+     */
+    public int findNearest(final long hash) {
+        int bestId = NONE;
+        int bestDistance = maxDistance + 1;
+
+        for (int b = 0; b < BLOCKS; b++) {
+            int key = block(hash, b);
+
+            // Probe the exact bucket, and all buckets one bit flip away if needed
+            for (int flip = -1; flip < (blockDistance > 0 ? BLOCK_BITS : 0); flip++) {
+                int probe = flip < 0 ? key : key ^ (1 << flip);
+
+                for (int id = heads[b][probe]; id != NONE; id = next[b][id]) {
+                    int distance = ImageHash.distance(hash, hashes[id]);
+
+                    if (distance < bestDistance) {
+                        bestId = id;
+                        bestDistance = distance;
+
+                        if (distance == 0) {
+                            return bestId;
+                        }
+                    }
+                }
+            }
+        }
+
+        return bestId;
+    }
+
+    /**
+     * Gets the hash with the given id.
+     *
+     * @param id the id returned from {@link #add(long)}.
+     *
+     * @return the hash.
+     */
+    public long get(final int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("id: " + id + ", size: " + size);
+        }
+
+        return hashes[id];
+    }
+
+    /**
+     * @return the number of hashes in the index.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,167 @@
+package no.bouvet.snaploc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Perceptual hashes of all photos in the library, persisted next to the photos,
+ * and indexed for fast near-duplicate lookups.
+ * <p/>
+ * Hashes are computed once, at capture time, from the thumbnail, and appended to the store.
+ * The store is read back in full on startup, skipping photos that no longer exist.
+ * A truncated or corrupt tail (ie. from a crash while writing) is dropped, and the store is rewritten
+ * without it, so that later records are not appended after garbage.
+ * Not thread safe.
+ */
+public class ImageHashStore {
+    private static final String FILE_NAME = "photo-hashes.dat";
+
+    private final File file;
+    private final ImageHashIndex index;
+    private final List<String> names = new ArrayList<>();
+
+    private ImageHashStore(final File file, final int maxDistance) {
+        this.file = file;
+        index = new ImageHashIndex(maxDistance);
+    }
+
+    /**
+     * Loads the hashes of all photos in the given directory.
+     * Does disk I/O, and should not be invoked on the UI thread.
+     *
+     * @param directory the photo directory, or {@code null} to keep hashes in memory only.
+     * @param maxDistance the maximum Hamming distance for two photos to be considered near-duplicates.
+     *
+     * @return the hash store.
+     *
+     * @throws IOException if the store can't be read.
+     */
+    public static ImageHashStore load(final File directory, final int maxDistance) throws IOException {
+        ImageHashStore store = new ImageHashStore(directory != null ? new File(directory, FILE_NAME) : null, maxDistance);
+
+        if (store.file == null) {
+            return store;
+        }
+
+        DataInputStream in;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(store.file)));
+        }
+        catch (FileNotFoundException e) {
+            return store; // Nothing stored yet
+        }
+
+        boolean dirty = false;
+
+        try {
+            while (true) {
+                // Peek for a clean end of file, anything else is a record
+                in.mark(1);
+
+                if (in.read() < 0) {
+                    break;
+                }
+
+                in.reset();
+
+                String name = in.readUTF();
+                long hash = in.readLong();
+
+                if (new File(directory, name).exists()) {
+                    store.index.add(hash);
+                    store.names.add(name);
+                }
+                else {
+                    dirty = true;
+                }
+            }
+        }
+        catch (IOException e) {
+            // Truncated or corrupt, keep the records read so far, and ignore the rest
+            dirty = true;
+        }
+        finally {
+            in.close();
+        }
+
+        if (dirty) {
+            store.rewrite();
+        }
+
+        return store;
+    }
+
+    // Writes all current records to a new file, replacing the old one
+    private void rewrite() throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+        try {
+            for (int i = 0; i < names.size(); i++) {
+                out.writeUTF(names.get(i));
+                out.writeLong(index.get(i));
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Finds a near-duplicate of a photo.
+     *
+     * @param hash the perceptual hash of the photo.
+     *
+     * @return the file name of the closest near-duplicate photo, or {@code null} if there is none.
+     */
+    public String findDuplicate(final long hash) {
+        int id = index.findNearest(hash);
+        return id >= 0 ? names.get(id) : null;
+    }
+
+    /**
+     * Adds a photo to the store.
+     *
+     * @param photo the photo file.
+     * @param hash the perceptual hash of the photo.
+     *
+     * @throws IOException if the store can't be written.
+     */
+    public void add(final File photo, final long hash) throws IOException {
+        index.add(hash);
+        names.add(photo.getName());
+
+        if (file != null) {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true));
+
+            try {
+                out.writeUTF(photo.getName());
+                out.writeLong(hash);
+            }
+            finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return the number of photos in the store.
+     */
+    public int size() {
+        return names.size();
+    }
+}
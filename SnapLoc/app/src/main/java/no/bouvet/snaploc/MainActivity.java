@@ -1,20 +1,28 @@
 package no.bouvet.snaploc;
 
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.location.Location;
 import android.media.ExifInterface;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Environment;
 import android.provider.MediaStore;
+import android.text.format.DateUtils;
+import android.util.Log;
 import android.support.annotation.NonNull;
+import android.support.v4.app.DialogFragment;
 import android.support.v7.app.ActionBarActivity;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.ImageView;
+import android.widget.Toast;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -28,15 +36,39 @@ import java.util.concurrent.Future;
  *
  * @see <a href="http://developer.android.com/training/camera/photobasics.html">Taking Photos Simply</a>
  */
-public class MainActivity extends ActionBarActivity {
+public class MainActivity extends ActionBarActivity implements TripSegmenter.Listener {
+
+    private static final String TAG = "MainActivity";
 
     private static final int REQUEST_IMAGE_CAPTURE = 1;
 
     private static final String BITMAP_STORAGE_KEY = "viewbitmap";
     private static final String PHOTO_PATH_STORAGE_KEY = "photopath";
+    private static final String PHOTO_HASH_STORAGE_KEY = "photohash";
+    private static final String PHOTO_PENDING_STORAGE_KEY = "photopending";
+
+    private static final String DUPLICATE_DIALOG_TAG = "duplicate";
+
+    private static final String EXPORT_ZIPPED_PREFERENCE = "exportzipped";
+
+    // Target size and quality for shrinking photos
+    private static final int SHRINK_MAX_DIMENSION = 2048;
+    private static final int SHRINK_QUALITY = 85;
+
+    // Max Hamming distance between perceptual hashes, for photos to be considered near-duplicates
+    private static final int DUPLICATE_MAX_DISTANCE = 5;
 
     private String mCurrentPhotoPath;
     private Bitmap mCurrentPhoto;
+    private long mCurrentPhotoHash;
+
+    // A new capture, waiting for the library to load, or for the user to decide whether to keep it
+    private boolean mCurrentPhotoPending;
+    private boolean mResumed;
+
+    // Library wide state, loaded in the background, and retained across orientation change
+    private ImageHashStore mPhotoHashes;
+    private TripSegmenter mTrips;
 
     private ImageView mImageView;
 
@@ -46,6 +78,26 @@ public class MainActivity extends ActionBarActivity {
         setContentView(R.layout.activity_main);
 
         mImageView = (ImageView) findViewById(R.id.thumb);
+
+        RetainedState retained = (RetainedState) getLastCustomNonConfigurationInstance();
+
+        // Might still be loading when retained, then just load again
+        if (retained != null && retained.photoHashes != null) {
+            mPhotoHashes = retained.photoHashes;
+            mTrips = retained.trips;
+        }
+        else {
+            new LoadLibraryTask().execute(PhotoLibrary.getDirectory(this));
+        }
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        RetainedState retained = new RetainedState();
+        retained.photoHashes = mPhotoHashes;
+        retained.trips = mTrips;
+
+        return retained;
     }
 
 
@@ -53,6 +105,7 @@ public class MainActivity extends ActionBarActivity {
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_export_zipped).setChecked(isExportZipped());
         return true;
     }
 
@@ -68,14 +121,43 @@ public class MainActivity extends ActionBarActivity {
             return true;
         }
 
+        if (id == R.id.action_export_kml) {
+            new ExportTask(PhotoExporter.Format.KML, isExportZipped()).execute(PhotoLibrary.getDirectory(this));
+            return true;
+        }
+
+        if (id == R.id.action_export_geojson) {
+            new ExportTask(PhotoExporter.Format.GEOJSON, isExportZipped()).execute(PhotoLibrary.getDirectory(this));
+            return true;
+        }
+
+        if (id == R.id.action_export_zipped) {
+            boolean zipped = !item.isChecked();
+            item.setChecked(zipped);
+            getPreferences(MODE_PRIVATE).edit().putBoolean(EXPORT_ZIPPED_PREFERENCE, zipped).apply();
+            return true;
+        }
+
+        if (id == R.id.action_shrink) {
+            // Not on the default serial executor, as that would block all other tasks until done
+            new ShrinkTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, PhotoLibrary.getDirectory(this));
+            return true;
+        }
+
         return super.onOptionsItemSelected(item);
     }
 
+    private boolean isExportZipped() {
+        return getPreferences(MODE_PRIVATE).getBoolean(EXPORT_ZIPPED_PREFERENCE, false);
+    }
+
     // Some lifecycle callbacks so that the image can survive orientation change
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         outState.putString(PHOTO_PATH_STORAGE_KEY, mCurrentPhotoPath);
         outState.putParcelable(BITMAP_STORAGE_KEY, mCurrentPhoto);
+        outState.putLong(PHOTO_HASH_STORAGE_KEY, mCurrentPhotoHash);
+        outState.putBoolean(PHOTO_PENDING_STORAGE_KEY, mCurrentPhotoPending);
         super.onSaveInstanceState(outState);
     }
 
@@ -84,9 +166,25 @@ public class MainActivity extends ActionBarActivity {
         super.onRestoreInstanceState(savedInstanceState);
         mCurrentPhoto = savedInstanceState.getParcelable(BITMAP_STORAGE_KEY);
         mCurrentPhotoPath = savedInstanceState.getString(PHOTO_PATH_STORAGE_KEY);
+        mCurrentPhotoHash = savedInstanceState.getLong(PHOTO_HASH_STORAGE_KEY);
+        mCurrentPhotoPending = savedInstanceState.getBoolean(PHOTO_PENDING_STORAGE_KEY);
         mImageView.setImageBitmap(mCurrentPhoto);
     }
 
+    // Pending photos are handled once resumed, as the duplicate dialog can't be shown before
+    @Override
+    protected void onPostResume() {
+        super.onPostResume();
+        mResumed = true;
+        handlePendingPhoto();
+    }
+
+    @Override
+    protected void onPause() {
+        mResumed = false;
+        super.onPause();
+    }
+
     // Launch map
     public void onLocate(View view) {
         Intent intent = new Intent(this, MapsActivity.class);
@@ -136,7 +234,18 @@ public class MainActivity extends ActionBarActivity {
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == REQUEST_IMAGE_CAPTURE && resultCode == RESULT_OK) {
             updateThumbnail();
-            updateLocationIfNeeded();
+
+            // Hash the already downsampled thumbnail, no need to decode the full image again
+            if (mCurrentPhoto != null) {
+                mCurrentPhotoHash = ImageHash.dHash(mCurrentPhoto);
+            }
+
+            mCurrentPhotoPending = true;
+
+            // Normally still paused here, but not for fake captures
+            if (mResumed) {
+                handlePendingPhoto();
+            }
         }
     }
 
@@ -167,7 +276,128 @@ public class MainActivity extends ActionBarActivity {
         mImageView.setImageBitmap(bitmap);
     }
 
-    private void updateLocationIfNeeded() {
+    // Keeps the pending photo, unless it is a near-duplicate, then asks the user what to do with it
+    private void handlePendingPhoto() {
+        // The library might still be loading, or the user is already asked
+        if (!mCurrentPhotoPending || mPhotoHashes == null
+                || getSupportFragmentManager().findFragmentByTag(DUPLICATE_DIALOG_TAG) != null) {
+            return;
+        }
+
+        String original = mCurrentPhoto != null ? mPhotoHashes.findDuplicate(mCurrentPhotoHash) : null;
+
+        // Only spend time geo-tagging if the user wants to keep the photo
+        if (original == null) {
+            keepPhoto();
+        }
+        else {
+            DuplicateDialogFragment.newInstance(original).show(getSupportFragmentManager(), DUPLICATE_DIALOG_TAG);
+        }
+    }
+
+    /**
+     * Asks the user whether to keep or discard a near-duplicate photo.
+     * Recreated by the fragment manager on orientation change, unlike a plain dialog.
+     */
+    public static class DuplicateDialogFragment extends DialogFragment {
+        private static final String ORIGINAL_KEY = "original";
+
+        static DuplicateDialogFragment newInstance(final String original) {
+            Bundle arguments = new Bundle();
+            arguments.putString(ORIGINAL_KEY, original);
+
+            DuplicateDialogFragment fragment = new DuplicateDialogFragment();
+            fragment.setArguments(arguments);
+            fragment.setCancelable(false);
+
+            return fragment;
+        }
+
+        @NonNull
+        @Override
+        public Dialog onCreateDialog(final Bundle savedInstanceState) {
+            return new AlertDialog.Builder(getActivity())
+                    .setMessage(getString(R.string.dialog_duplicate, getArguments().getString(ORIGINAL_KEY)))
+                    .setPositiveButton(R.string.btn_discard, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(final DialogInterface dialog, final int which) {
+                            ((MainActivity) getActivity()).discardPhoto();
+                        }
+                    })
+                    .setNegativeButton(R.string.btn_keep, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(final DialogInterface dialog, final int which) {
+                            ((MainActivity) getActivity()).keepPhoto();
+                        }
+                    })
+                    .create();
+        }
+    }
+
+    private void keepPhoto() {
+        mCurrentPhotoPending = false;
+
+        if (mCurrentPhoto != null && mPhotoHashes != null) {
+            try {
+                mPhotoHashes.add(new File(mCurrentPhotoPath), mCurrentPhotoHash);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        Location location = updateLocationIfNeeded();
+
+        if (location != null) {
+            updateTrips(location);
+        }
+    }
+
+    // Feeds the new capture to the open trip, and reports on it
+    private void updateTrips(final Location location) {
+        long time = location.getTime();
+
+        // The library might still be loading, and photos with unknown or older time can't extend the trip
+        if (mTrips == null || time == 0 || time < mTrips.getLastTime()) {
+            return;
+        }
+
+        mTrips.add(time, location.getLatitude(), location.getLongitude(), this);
+        mTrips.peek(this);
+    }
+
+    // TripSegmenter.Listener
+    @Override
+    public void onTripStart(final long time) {
+        Toast.makeText(this, R.string.toast_trip_start, Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onStayPoint(final long arrival, final long departure, final double latitude, final double longitude, final int photos) {
+        String duration = DateUtils.formatElapsedTime((departure - arrival) / 1000);
+        Toast.makeText(this, getResources().getQuantityString(R.plurals.toast_stay, photos, duration, photos), Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onTripEnd(final long start, final long end, final int photos) {
+        // A new trip is about to start, and that is what we report
+    }
+
+    // Collapses the duplicate into the photo we already have, by simply not storing it
+    private void discardPhoto() {
+        mCurrentPhotoPending = false;
+
+        if (!new File(mCurrentPhotoPath).delete()) {
+            Log.w(TAG, "Could not delete duplicate photo: " + mCurrentPhotoPath);
+        }
+
+        mCurrentPhotoPath = null;
+        mCurrentPhoto = null;
+        mImageView.setImageBitmap(null);
+    }
+
+    // Returns the location of the current photo, or null if unknown
+    private Location updateLocationIfNeeded() {
         try {
             ExifInterface exif = new ExifInterface(mCurrentPhotoPath);
             Location location = ExifUtils.getLocation(exif);
@@ -186,11 +416,130 @@ public class MainActivity extends ActionBarActivity {
 
                 ExifUtils.setLocation(exif, location);
                 exif.saveAttributes();
+
+                // Read back, for the time the photo was taken rather than the time of the fix
+                location = ExifUtils.getLocation(exif);
             }
+
+            return location;
         }
         catch (IOException e) {
             e.printStackTrace();
         }
+
+        return null;
+    }
+
+    // Loads library wide state in the background
+    private class LoadLibraryTask extends AsyncTask<File, Void, RetainedState> {
+        @Override
+        protected RetainedState doInBackground(final File... directories) {
+            RetainedState state = new RetainedState();
+
+            try {
+                state.photoHashes = ImageHashStore.load(directories[0], DUPLICATE_MAX_DISTANCE);
+            }
+            catch (IOException e) {
+                // Better to detect duplicates for this session only, than not at all
+                Log.w(TAG, "Could not load photo hashes", e);
+
+                try {
+                    state.photoHashes = ImageHashStore.load(null, DUPLICATE_MAX_DISTANCE);
+                }
+                catch (IOException ignore) {
+                    // Can't happen, nothing to read
+                }
+            }
+
+            // Replay the library silently, leaving the last trip open for new captures.
+            // This reads every photo, and holds the whole trail while sorting it, so is O(n) at startup.
+            state.trips = TripSegmenter.createDefault();
+            PhotoTrail.load(directories[0]).segment(state.trips, null);
+
+            return state;
+        }
+
+        @Override
+        protected void onPostExecute(final RetainedState state) {
+            mPhotoHashes = state.photoHashes;
+            mTrips = state.trips;
+
+            // A photo might have been captured while loading
+            if (mResumed) {
+                handlePendingPhoto();
+            }
+        }
+    }
+
+    private static class RetainedState {
+        ImageHashStore photoHashes;
+        TripSegmenter trips;
+    }
+
+    // Exports all geo-tagged photos in the background, then lets the user share the result
+    private class ExportTask extends AsyncTask<File, Void, File> {
+        private final PhotoExporter.Format format;
+        private final boolean zipped;
+
+        ExportTask(final PhotoExporter.Format format, final boolean zipped) {
+            this.format = format;
+            this.zipped = zipped;
+        }
+
+        @Override
+        protected File doInBackground(final File... directories) {
+            File directory = directories[0];
+
+            if (directory == null) {
+                return null;
+            }
+
+            File export = new File(directory, "snaploc." + format.getExtension(zipped));
+
+            try {
+                PhotoExporter.export(directory, new FileOutputStream(export), format, zipped);
+                return export;
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(final File export) {
+            if (export == null) {
+                Toast.makeText(MainActivity.this, R.string.toast_export_failed, Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            Intent share = new Intent(Intent.ACTION_SEND);
+            share.setType(format.getMimeType(zipped));
+            share.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(export));
+
+            startActivity(Intent.createChooser(share, getString(R.string.title_export_share)));
+        }
+    }
+
+    // Downsizes and recompresses all photos in the background
+    private class ShrinkTask extends AsyncTask<File, Void, Integer> {
+        @Override
+        protected Integer doInBackground(final File... directories) {
+            try {
+                return new PhotoShrinker(SHRINK_MAX_DIMENSION, SHRINK_QUALITY).shrink(directories[0]);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return 0;
+        }
+
+        @Override
+        protected void onPostExecute(final Integer count) {
+            Toast.makeText(MainActivity.this, getResources().getQuantityString(R.plurals.toast_shrunk, count, count), Toast.LENGTH_SHORT).show();
+        }
     }
 
     private File createImageFile() {
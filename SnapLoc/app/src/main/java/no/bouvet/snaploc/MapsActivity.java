@@ -1,7 +1,10 @@
 package no.bouvet.snaploc;
 
 import android.content.Intent;
+import android.graphics.Color;
 import android.location.Location;
+import android.os.AsyncTask;
+import android.text.format.DateUtils;
 import android.support.v4.app.FragmentActivity;
 import android.os.Bundle;
 import android.support.v7.app.ActionBarActivity;
@@ -9,16 +12,34 @@ import android.support.v7.app.ActionBarActivity;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.SupportMapFragment;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MapsActivity extends ActionBarActivity {
 
     final static String LOCATION = "location";
 
+    private static final int DEFAULT_ZOOM = 11;
+
+    // Trips are drawn in alternating colors
+    private static final int[] TRIP_COLORS = {Color.BLUE, Color.RED, Color.GREEN, Color.MAGENTA, Color.CYAN};
+
     private GoogleMap mMap; // Might be null if Google Play services APK is not available.
     private Location mLocation;
 
+    private List<PhotoTrail> mTrips;
+    private final List<Polyline> mTripLines = new ArrayList<>();
+    private int mTripsZoom;
+    private LoadTrailTask mLoadTrailTask;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -42,6 +63,17 @@ public class MapsActivity extends ActionBarActivity {
         setUpMapIfNeeded();
     }
 
+    @Override
+    protected void onDestroy() {
+        // Don't draw on the map of a destroyed activity
+        if (mLoadTrailTask != null) {
+            mLoadTrailTask.cancel(false);
+            mLoadTrailTask = null;
+        }
+
+        super.onDestroy();
+    }
+
     /**
      * Sets up the map if it is possible to do so (i.e., the Google Play services APK is correctly
      * installed) and the map has not already been instantiated.. This will ensure that we only ever
@@ -81,6 +113,120 @@ public class MapsActivity extends ActionBarActivity {
                 ? new LatLng(mLocation.getLatitude(), mLocation.getLongitude())
                 : new LatLng(0, 0); // "near Africa"
         mMap.addMarker(new MarkerOptions().position(position).title("Snapped here!"));
-        mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(position, 11));
+        mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(position, DEFAULT_ZOOM));
+
+        mLoadTrailTask = new LoadTrailTask();
+        mLoadTrailTask.execute(PhotoLibrary.getDirectory(this));
+    }
+
+    /**
+     * Draws the trail between consecutive photos, one polyline per trip, and swaps in the cached
+     * simplified trails whenever the zoom level changes.
+     */
+    private void setUpTrips(final List<PhotoTrail> trips) {
+        mTrips = trips;
+        mTripsZoom = (int) mMap.getCameraPosition().zoom;
+
+        for (int i = 0; i < trips.size(); i++) {
+            mTripLines.add(mMap.addPolyline(new PolylineOptions()
+                    .addAll(trips.get(i).getPoints(mTripsZoom))
+                    .color(TRIP_COLORS[i % TRIP_COLORS.length])
+                    .width(4)));
+        }
+
+        mMap.setOnCameraChangeListener(new GoogleMap.OnCameraChangeListener() {
+            @Override
+            public void onCameraChange(final CameraPosition position) {
+                int zoom = (int) position.zoom;
+
+                // Pans don't change level of detail, so leave the polylines alone
+                if (zoom != mTripsZoom) {
+                    mTripsZoom = zoom;
+
+                    for (int i = 0; i < mTrips.size(); i++) {
+                        mTripLines.get(i).setPoints(mTrips.get(i).getPoints(zoom));
+                    }
+                }
+            }
+        });
+    }
+
+    private class LoadTrailTask extends AsyncTask<File, Void, List<PhotoTrail>> implements TripSegmenter.Listener {
+        private final List<MarkerOptions> markers = new ArrayList<>();
+        private final List<PhotoTrail> trips = new ArrayList<>();
+
+        private PhotoTrail trail;
+        private int tripOffset;
+
+        @Override
+        protected List<PhotoTrail> doInBackground(final File... directories) {
+            trail = PhotoTrail.load(directories[0]);
+
+            if (isCancelled()) {
+                return trips;
+            }
+
+            TripSegmenter segmenter = TripSegmenter.createDefault();
+            trail.segment(segmenter, this);
+            segmenter.flush(this);
+
+            // Warm up the caches for the current zoom level, off the UI thread
+            for (PhotoTrail trip : trips) {
+                trip.getPoints(DEFAULT_ZOOM);
+            }
+
+            return trips;
+        }
+
+        @Override
+        protected void onPostExecute(final List<PhotoTrail> trips) {
+            mLoadTrailTask = null;
+
+            if (isCancelled() || mMap == null) {
+                return;
+            }
+
+            setUpTrips(trips);
+
+            for (MarkerOptions marker : markers) {
+                mMap.addMarker(marker);
+            }
+        }
+
+        private String formatTimeSpan(final long start, final long end) {
+            return DateUtils.formatDateRange(MapsActivity.this, start, end, DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
+        }
+
+        // TripSegmenter.Listener
+        @Override
+        public void onTripStart(final long time) {
+        }
+
+        @Override
+        public void onStayPoint(final long arrival, final long departure, final double latitude, final double longitude, final int photos) {
+            markers.add(new MarkerOptions()
+                    .position(new LatLng(latitude, longitude))
+                    .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE))
+                    .title(formatTimeSpan(arrival, departure))
+                    .snippet(getResources().getQuantityString(R.plurals.place_photos, photos, photos)));
+        }
+
+        @Override
+        public void onTripEnd(final long start, final long end, final int photos) {
+            // Points are fed to the segmenter in trail order, so each trip is the next range of the trail
+            PhotoTrail trip = trail.subTrail(tripOffset, tripOffset + photos);
+            tripOffset += photos;
+            trips.add(trip);
+
+            // Mark the start of the trip, in the same color as the trip polyline
+            float[] hsv = new float[3];
+            Color.colorToHSV(TRIP_COLORS[(trips.size() - 1) % TRIP_COLORS.length], hsv);
+
+            markers.add(new MarkerOptions()
+                    .position(trip.getPoint(0))
+                    .icon(BitmapDescriptorFactory.defaultMarker(hsv[0]))
+                    .title(formatTimeSpan(start, end))
+                    .snippet(getResources().getQuantityString(R.plurals.trip_photos, photos, photos)));
+        }
     }
 }
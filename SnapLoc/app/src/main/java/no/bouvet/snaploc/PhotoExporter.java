@@ -0,0 +1,296 @@
+package no.bouvet.snaploc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Bulk export of geo-tagged photos, as KML or GeoJSON.
+ * <p/>
+ * Photos are streamed to the output one record at a time, so memory use does not grow with library size.
+ *
+ * @see <a href="https://developers.google.com/kml/documentation/kmlreference">KML Reference</a>
+ * @see <a href="http://geojson.org/geojson-spec.html">The GeoJSON Format Specification</a>
+ */
+public final class PhotoExporter {
+    private PhotoExporter() {}
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Coordinates are written with 7 decimals, about 1 cm
+    private static final long COORDINATE_SCALE = 10000000L;
+
+    /**
+     * Export formats.
+     */
+    public enum Format {
+        KML("kml", "kmz", "application/vnd.google-earth.kml+xml", "application/vnd.google-earth.kmz"),
+        GEOJSON("geojson", "zip", "application/vnd.geo+json", "application/zip");
+
+        private final String extension;
+        private final String zippedExtension;
+        private final String mimeType;
+        private final String zippedMimeType;
+
+        Format(final String extension, final String zippedExtension, final String mimeType, final String zippedMimeType) {
+            this.extension = extension;
+            this.zippedExtension = zippedExtension;
+            this.mimeType = mimeType;
+            this.zippedMimeType = zippedMimeType;
+        }
+
+        /**
+         * @param zipped whether the output is zipped.
+         * @return the file name extension for this format.
+         */
+        public String getExtension(final boolean zipped) {
+            return zipped ? zippedExtension : extension;
+        }
+
+        /**
+         * @param zipped whether the output is zipped.
+         * @return the MIME type for this format.
+         */
+        public String getMimeType(final boolean zipped) {
+            return zipped ? zippedMimeType : mimeType;
+        }
+
+        // KMZ readers expect the main document to be named doc.kml
+        private String getEntryName() {
+            return this == KML ? "doc.kml" : "photos." + extension;
+        }
+    }
+
+    /**
+     * Exports all geo-tagged photos in the given directory.
+     * Does disk I/O, and should not be invoked on the UI thread.
+     *
+     * @param directory the photo directory.
+     * @param stream the stream to write to, will be closed after export.
+     * @param format the export format.
+     * @param zipped whether to zip the output (as KMZ for KML).
+     *
+     * @return the number of photos exported.
+     *
+     * @throws IOException if writing fails.
+     */
+    public static int export(final File directory, final OutputStream stream, final Format format, final boolean zipped) throws IOException {
+        OutputStream out = stream;
+        PrintWriter writer = null;
+
+        try {
+            if (zipped) {
+                ZipOutputStream zip = new ZipOutputStream(stream);
+                out = zip;
+                zip.putNextEntry(new ZipEntry(format.getEntryName()));
+            }
+
+            // PrintWriter never throws, so check for errors after writing instead
+            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")), BUFFER_SIZE));
+            RecordWriter records = createWriter(format, writer);
+
+            records.writeHeader();
+            int count = PhotoLibrary.forEach(directory, records);
+            records.writeFooter();
+
+            writer.flush();
+
+            if (writer.checkError()) {
+                throw new IOException("Could not write " + format + " export");
+            }
+
+            return count;
+        }
+        finally {
+            // Closing the zip stream may fail while finishing the archive, so always close the stream itself too
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+            finally {
+                stream.close();
+            }
+        }
+    }
+
+    // Package-private for testing
+    static RecordWriter createWriter(final Format format, final PrintWriter writer) {
+        return format == Format.KML ? new KMLWriter(writer) : new GeoJSONWriter(writer);
+    }
+
+    static abstract class RecordWriter implements PhotoLibrary.Visitor {
+        protected final PrintWriter writer;
+
+        // Reused for every record, to avoid creating garbage per record
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        private final Date date = new Date();
+
+        protected RecordWriter(final PrintWriter writer) {
+            this.writer = writer;
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+
+        protected String formatTime(final long time) {
+            date.setTime(time);
+            return dateFormat.format(date);
+        }
+
+        // Fixed-point, as print(double) uses scientific notation for small values, that readers don't expect
+        protected void writeCoordinate(final double degrees) {
+            long fixed = Math.round(degrees * COORDINATE_SCALE);
+
+            if (fixed < 0) {
+                writer.print('-');
+                fixed = -fixed;
+            }
+
+            writer.print(fixed / COORDINATE_SCALE);
+            writer.print('.');
+
+            for (long digit = COORDINATE_SCALE / 10; digit > 0; digit /= 10) {
+                writer.print((char) ('0' + fixed / digit % 10));
+            }
+        }
+
+        abstract void writeHeader();
+
+        abstract void writeFooter();
+    }
+
+    private static class KMLWriter extends RecordWriter {
+        KMLWriter(final PrintWriter writer) {
+            super(writer);
+        }
+
+        @Override
+        void writeHeader() {
+            writer.print("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.print("<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n<Document>\n<name>SnapLoc</name>\n");
+        }
+
+        @Override
+        public void visit(final File photo, final long time, final double latitude, final double longitude) {
+            writer.print("<Placemark><name>");
+            writeEscaped(photo.getName());
+            writer.print("</name><description>");
+            writeEscaped(photo.getAbsolutePath());
+            writer.print("</description>");
+
+            if (time != 0) {
+                writer.print("<TimeStamp><when>");
+                writer.print(formatTime(time));
+                writer.print("</when></TimeStamp>");
+            }
+
+            // NOTE: KML coordinates are longitude first
+            writer.print("<Point><coordinates>");
+            writeCoordinate(longitude);
+            writer.print(',');
+            writeCoordinate(latitude);
+            writer.print("</coordinates></Point></Placemark>\n");
+        }
+
+        @Override
+        void writeFooter() {
+            writer.print("</Document>\n</kml>\n");
+        }
+
+        private void writeEscaped(final String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+
+                switch (c) {
+                    case '<':
+                        writer.print("&lt;");
+                        break;
+                    case '>':
+                        writer.print("&gt;");
+                        break;
+                    case '&':
+                        writer.print("&amp;");
+                        break;
+                    case '"':
+                        writer.print("&quot;");
+                        break;
+                    default:
+                        writer.print(c);
+                }
+            }
+        }
+    }
+
+    private static class GeoJSONWriter extends RecordWriter {
+        private boolean first = true;
+
+        GeoJSONWriter(final PrintWriter writer) {
+            super(writer);
+        }
+
+        @Override
+        void writeHeader() {
+            writer.print("{\"type\":\"FeatureCollection\",\"features\":[\n");
+        }
+
+        @Override
+        public void visit(final File photo, final long time, final double latitude, final double longitude) {
+            if (!first) {
+                writer.print(",\n");
+            }
+
+            first = false;
+
+            // NOTE: GeoJSON positions are longitude first
+            writer.print("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[");
+            writeCoordinate(longitude);
+            writer.print(',');
+            writeCoordinate(latitude);
+            writer.print("]},\"properties\":{\"path\":");
+            writeEscaped(photo.getAbsolutePath());
+
+            if (time != 0) {
+                writer.print(",\"time\":\"");
+                writer.print(formatTime(time));
+                writer.print('"');
+            }
+
+            writer.print("}}");
+        }
+
+        @Override
+        void writeFooter() {
+            writer.print("\n]}\n");
+        }
+
+        private void writeEscaped(final String value) {
+            writer.print('"');
+
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+
+                if (c == '"' || c == '\\') {
+                    writer.print('\\');
+                    writer.print(c);
+                }
+                else if (c < 0x20) {
+                    writer.print(String.format(Locale.US, "\\u%04x", (int) c));
+                }
+                else {
+                    writer.print(c);
+                }
+            }
+
+            writer.print('"');
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package no.bouvet.snaploc;
+
+import android.content.Context;
+import android.location.Location;
+import android.media.ExifInterface;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Access to the photos snapped by the app.
+ */
+public final class PhotoLibrary {
+    private PhotoLibrary() {}
+
+    /**
+     * Callback for each geo-tagged photo in the library.
+     */
+    public interface Visitor {
+        /**
+         * Invoked once for each geo-tagged photo.
+         *
+         * @param photo the photo file.
+         * @param time the time the photo was taken, in millis since epoch, or {@code 0} if unknown.
+         * @param latitude the latitude, in degrees.
+         * @param longitude the longitude, in degrees.
+         */
+        void visit(File photo, long time, double latitude, double longitude);
+    }
+
+    /**
+     * Gets the directory where photos are stored.
+     *
+     * @param context Context
+     *
+     * @return the photo directory, or {@code null} if external storage is not available.
+     */
+    public static File getDirectory(final Context context) {
+        return context.getApplicationContext().getExternalFilesDir(null); // app private images
+    }
+
+    /**
+     * Visits all geo-tagged photos in the given directory, one at a time, in no particular order.
+     * Photos without GPS location, or that can't be read, are skipped.
+     *
+     * @param directory the photo directory.
+     * @param visitor the callback for each photo.
+     *
+     * @return the number of photos visited.
+     */
+    public static int forEach(final File directory, final Visitor visitor) {
+        String[] names = directory != null ? directory.list() : null;
+
+        if (names == null) {
+            return 0;
+        }
+
+        int count = 0;
+
+        for (String name : names) {
+            if (!name.toLowerCase().endsWith(".jpg")) {
+                continue;
+            }
+
+            File photo = new File(directory, name);
+
+            try {
+                Location location = ExifUtils.getLocation(new ExifInterface(photo.getAbsolutePath()));
+
+                if (location != null) {
+                    visitor.visit(photo, location.getTime(), location.getLatitude(), location.getLongitude());
+                    count++;
+                }
+            }
+            catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // Unreadable, or malformed GPS tags, skip this photo
+                e.printStackTrace();
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,397 @@
+package no.bouvet.snaploc;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.os.Build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk downsizing and recompression of the photo library, in parallel.
+ * <p/>
+ * Memory use is bounded by a fixed share of the heap. The number of threads is limited by how many
+ * decoded and scaled bitmaps fit in that share, and each photo is decoded (as RGB 565) subsampled enough
+ * to fit in its thread's part of it. Large photos on small heaps are thus shrunk to less than the max dimension.
+ * Each thread only works on one photo at a time, using buffers (and on KitKat and later, bitmaps)
+ * from a shared pool. GPS and time EXIF tags are carried over to the new file.
+ *
+ * @see <a href="http://developer.android.com/training/displaying-bitmaps/load-bitmap.html">Loading Large Bitmaps Efficiently</a>
+ */
+public class PhotoShrinker {
+    // Tags to carry over, notably the ones written by ExifUtils.setLocation
+    private static final String[] EXIF_TAGS = {
+            ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_GPS_LONGITUDE,
+            ExifInterface.TAG_GPS_LONGITUDE_REF,
+            ExifInterface.TAG_GPS_ALTITUDE,
+            ExifInterface.TAG_GPS_ALTITUDE_REF,
+            ExifInterface.TAG_GPS_DATESTAMP,
+            ExifInterface.TAG_GPS_TIMESTAMP,
+            ExifInterface.TAG_GPS_PROCESSING_METHOD,
+            ExifInterface.TAG_DATETIME,
+            ExifInterface.TAG_ORIENTATION,
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_FLASH,
+            ExifInterface.TAG_FOCAL_LENGTH,
+            ExifInterface.TAG_WHITE_BALANCE
+    };
+
+    // Recommended size of BitmapFactory.Options.inTempStorage
+    private static final int DECODE_BUFFER_SIZE = 16 * 1024;
+
+    // Photos have no alpha, so decode to 16 bit, half the memory of ARGB 8888
+    private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.RGB_565;
+    private static final int BYTES_PER_PIXEL = 2;
+
+    // Share of the max heap to use for bitmaps, leaving the rest for the app
+    private static final int HEAP_SHARE_DIVISOR = 4;
+
+    // Bitmaps can be decoded into existing bitmaps of a different size from KitKat
+    private static final boolean REUSE_BITMAPS = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+    private static final Paint SCALE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final int maxDimension;
+    private final int quality;
+
+    /**
+     * Creates a new shrinker.
+     *
+     * @param maxDimension the max width or height of the resulting photos, in pixels.
+     * @param quality the JPEG quality of the resulting photos, in the range {@code [0, 100]}.
+     */
+    public PhotoShrinker(final int maxDimension, final int quality) {
+        if (maxDimension <= 0) {
+            throw new IllegalArgumentException("maxDimension must be positive: " + maxDimension);
+        }
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("quality must be in range [0, 100]: " + quality);
+        }
+
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+    }
+
+    /**
+     * Shrinks all photos in the given directory, that are larger than the max dimension.
+     * Photos are replaced in place.
+     * Does disk I/O, and blocks until done, so should not be invoked on the UI thread.
+     *
+     * @param directory the photo directory.
+     *
+     * @return the number of photos shrunk.
+     *
+     * @throws InterruptedException if interrupted while waiting for the photos to be shrunk.
+     */
+    public int shrink(final File directory) throws InterruptedException {
+        String[] names = directory != null ? directory.list() : null;
+
+        if (names == null) {
+            return 0;
+        }
+
+        // Ideally, each thread has room for a decoded bitmap of up to twice the max dimension
+        // (as we subsample by powers of two), that is four times the pixels, plus the scaled copy
+        long memory = Runtime.getRuntime().maxMemory() / HEAP_SHARE_DIVISOR;
+        long scaledBytes = (long) maxDimension * maxDimension * BYTES_PER_PIXEL;
+        int threads = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), memory / (scaledBytes * 5)));
+
+        long threadMemory = memory / threads;
+        long decodeBudget = Math.max(threadMemory - scaledBytes, threadMemory / 2);
+
+        // One set of buffers per thread, reused for every photo
+        final BlockingQueue<Buffers> pool = new ArrayBlockingQueue<>(threads);
+
+        for (int i = 0; i < threads; i++) {
+            pool.add(new Buffers(decodeBudget));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+
+            for (String name : names) {
+                if (!name.toLowerCase().endsWith(".jpg")) {
+                    continue;
+                }
+
+                final File photo = new File(directory, name);
+
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        Buffers buffers = pool.take();
+
+                        try {
+                            return shrink(photo, buffers);
+                        }
+                        catch (OutOfMemoryError e) {
+                            // Should not happen within budget, but give the memory back before skipping this photo
+                            buffers.recycle();
+                            throw e;
+                        }
+                        finally {
+                            pool.put(buffers);
+                        }
+                    }
+                }));
+            }
+
+            int count = 0;
+
+            for (Future<Boolean> result : results) {
+                try {
+                    if (result.get()) {
+                        count++;
+                    }
+                }
+                catch (ExecutionException e) {
+                    // Just skip this photo, and continue with the rest
+                    e.getCause().printStackTrace();
+                }
+            }
+
+            // All tasks are done, and have returned their buffers
+            for (Buffers buffers : pool) {
+                buffers.recycle();
+            }
+
+            return count;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Computes the subsampling to decode a photo with.
+     * Uses the largest power of two that keeps the image at least as large as the target, for quality,
+     * or a larger one, if needed to fit the decoded bitmap within the budget.
+     *
+     * @param width the width of the photo.
+     * @param height the height of the photo.
+     * @param maxDimension the max width or height of the resulting photo.
+     * @param maxBytes the max size of the decoded bitmap, in bytes.
+     *
+     * @return the sample size, a power of two.
+     */
+    static int getSampleSize(final int width, final int height, final int maxDimension, final long maxBytes) {
+        int sampleSize = 1;
+
+        while (Math.max(width, height) / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+
+        while (getBitmapBytes(width, height, sampleSize) > maxBytes && Math.max(width, height) / sampleSize > 1) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    // The decoder rounds subsampled dimensions up
+    static long getBitmapBytes(final int width, final int height, final int sampleSize) {
+        long sampledWidth = (width + sampleSize - 1) / sampleSize;
+        long sampledHeight = (height + sampleSize - 1) / sampleSize;
+
+        return sampledWidth * sampledHeight * BYTES_PER_PIXEL;
+    }
+
+    private boolean shrink(final File photo, final Buffers buffers) throws IOException {
+        String path = photo.getAbsolutePath();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inTempStorage = buffers.decode;
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+
+        int width = options.outWidth;
+        int height = options.outHeight;
+
+        if (width <= 0 || height <= 0 || Math.max(width, height) <= maxDimension) {
+            return false; // Not a readable image, or already small enough
+        }
+
+        int sampleSize = getSampleSize(width, height, maxDimension, buffers.decodeBudget);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = BITMAP_CONFIG;
+        options.inMutable = REUSE_BITMAPS;
+
+        Bitmap bitmap = decode(path, options, getBitmapBytes(width, height, sampleSize), buffers);
+
+        if (bitmap == null) {
+            return false;
+        }
+
+        Bitmap result = bitmap;
+
+        try {
+            // Scale the remaining way down to the exact target size, unless the budget forced us below it
+            float scale = maxDimension / (float) Math.max(bitmap.getWidth(), bitmap.getHeight());
+
+            if (scale < 1) {
+                result = scale(bitmap,
+                        Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                        Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                        buffers);
+            }
+
+            buffers.encoded.reset();
+            result.compress(Bitmap.CompressFormat.JPEG, quality, buffers.encoded);
+        }
+        finally {
+            if (!REUSE_BITMAPS) {
+                bitmap.recycle();
+                result.recycle();
+            }
+        }
+
+        // Write to a temp file, copy EXIF, then replace the original
+        File temp = new File(photo.getParentFile(), photo.getName() + ".tmp");
+
+        try {
+            OutputStream out = new FileOutputStream(temp);
+
+            try {
+                buffers.encoded.writeTo(out);
+            }
+            finally {
+                out.close();
+            }
+
+            copyExif(new ExifInterface(path), new ExifInterface(temp.getAbsolutePath()));
+
+            if (!temp.renameTo(photo)) {
+                throw new IOException("Could not replace " + photo);
+            }
+        }
+        finally {
+            if (temp.exists() && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static Bitmap decode(final String path, final BitmapFactory.Options options, final long bytes, final Buffers buffers) {
+        if (REUSE_BITMAPS && buffers.decoded != null) {
+            if (buffers.decoded.getAllocationByteCount() >= bytes) {
+                options.inBitmap = buffers.decoded;
+
+                try {
+                    Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+
+                    if (bitmap != null) {
+                        return bitmap;
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    // Thrown if the bitmap can't be reused after all, fall back to a fresh decode
+                }
+                finally {
+                    options.inBitmap = null;
+                }
+            }
+
+            // Too small, or could not be reused, so free it before decoding into a new one
+            buffers.decoded.recycle();
+            buffers.decoded = null;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+
+        if (REUSE_BITMAPS) {
+            buffers.decoded = bitmap;
+        }
+
+        return bitmap;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static Bitmap scale(final Bitmap source, final int width, final int height, final Buffers buffers) {
+        Bitmap scaled = buffers.scaled;
+
+        if (scaled != null && scaled.getAllocationByteCount() >= (long) width * height * BYTES_PER_PIXEL) {
+            scaled.reconfigure(width, height, BITMAP_CONFIG);
+        }
+        else {
+            if (scaled != null) {
+                scaled.recycle();
+            }
+
+            scaled = Bitmap.createBitmap(width, height, BITMAP_CONFIG);
+
+            if (REUSE_BITMAPS) {
+                buffers.scaled = scaled;
+            }
+        }
+
+        // Same bilinear filtering as Bitmap.createScaledBitmap, but into a reusable bitmap
+        new Canvas(scaled).drawBitmap(source, null, new Rect(0, 0, width, height), SCALE_PAINT);
+
+        return scaled;
+    }
+
+    private static void copyExif(final ExifInterface source, final ExifInterface destination) throws IOException {
+        for (String tag : EXIF_TAGS) {
+            String value = source.getAttribute(tag);
+
+            if (value != null) {
+                destination.setAttribute(tag, value);
+            }
+        }
+
+        destination.saveAttributes();
+    }
+
+    private static class Buffers {
+        final long decodeBudget;
+
+        final byte[] decode = new byte[DECODE_BUFFER_SIZE];
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream(1024 * 1024);
+
+        // Only kept when they can be reused
+        Bitmap decoded;
+        Bitmap scaled;
+
+        Buffers(final long decodeBudget) {
+            this.decodeBudget = decodeBudget;
+        }
+
+        void recycle() {
+            if (decoded != null) {
+                decoded.recycle();
+                decoded = null;
+            }
+            if (scaled != null) {
+                scaled.recycle();
+                scaled = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package no.bouvet.snaploc;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The path between consecutive photos, ordered by time, with simplified levels of detail per map zoom level.
+ * <p/>
+ * Point significance is computed once, on first use, in Web Mercator coordinates, so that the tolerance
+ * can be expressed in screen pixels. The simplified polyline for each zoom level is created
+ * on first use, and cached.
+ */
+public class PhotoTrail {
+    // Max deviation from the full trail, in screen pixels
+    private static final double TOLERANCE_PIXELS = 1.0;
+
+    // Google Maps tiles are 256x256 pixels, and the whole world is one tile at zoom level 0
+    private static final int TILE_SIZE = 256;
+    private static final int MAX_ZOOM = 21;
+
+    private final long[] times;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private double[] significance; // Computed on first use
+
+    private final SparseArray<List<LatLng>> levels = new SparseArray<>();
+
+    /**
+     * Creates a new trail.
+     *
+     * @param times times, in millis since epoch, in increasing order.
+     * @param latitudes latitudes, in degrees, must be same length as {@code times}.
+     * @param longitudes longitudes, in degrees, must be same length as {@code times}.
+     */
+    public PhotoTrail(final long[] times, final double[] latitudes, final double[] longitudes) {
+        this.times = times;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    private double[] getSignificance() {
+        if (significance == null) {
+            int length = latitudes.length;
+            double[] x = new double[length];
+            double[] y = new double[length];
+
+            for (int i = 0; i < length; i++) {
+                x[i] = mercatorX(longitudes[i]);
+                y[i] = mercatorY(latitudes[i]);
+            }
+
+            significance = PolylineSimplifier.significance(x, y);
+        }
+
+        return significance;
+    }
+
+    // Projects longitude to Web Mercator, in range [0, 1]
+    private static double mercatorX(final double longitude) {
+        return longitude / 360 + 0.5;
+    }
+
+    // Projects latitude to Web Mercator, in range [0, 1] (clamped near the poles)
+    private static double mercatorY(final double latitude) {
+        double sin = Math.sin(Math.toRadians(Math.max(-85, Math.min(85, latitude))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    /**
+     * Loads the trail of all geo-tagged photos with a known time, from the given directory.
+     * Does disk I/O, and should not be invoked on the UI thread.
+     *
+     * @param directory the photo directory.
+     *
+     * @return the photo trail.
+     */
+    public static PhotoTrail load(final File directory) {
+        Collector collector = new Collector();
+        PhotoLibrary.forEach(directory, collector);
+
+        return collector.toTrail();
+    }
+
+    // Collects time and location of photos into primitive arrays
+    private static class Collector implements PhotoLibrary.Visitor {
+        private long[] times = new long[64];
+        private double[] latitudes = new double[64];
+        private double[] longitudes = new double[64];
+        private int count;
+
+        @Override
+        public void visit(final File photo, final long time, final double latitude, final double longitude) {
+            if (time == 0) {
+                return; // Unknown time means no way to tell where in the trail this photo belongs
+            }
+
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                latitudes = Arrays.copyOf(latitudes, count * 2);
+                longitudes = Arrays.copyOf(longitudes, count * 2);
+            }
+
+            times[count] = time;
+            latitudes[count] = latitude;
+            longitudes[count] = longitude;
+            count++;
+        }
+
+        PhotoTrail toTrail() {
+            int[] indexes = sortByTime(times, count);
+
+            long[] sortedTimes = new long[count];
+            double[] sortedLatitudes = new double[count];
+            double[] sortedLongitudes = new double[count];
+
+            for (int i = 0; i < count; i++) {
+                int index = indexes[i];
+                sortedTimes[i] = times[index];
+                sortedLatitudes[i] = latitudes[index];
+                sortedLongitudes[i] = longitudes[index];
+            }
+
+            return new PhotoTrail(sortedTimes, sortedLatitudes, sortedLongitudes);
+        }
+    }
+
+    /**
+     * Sorts indexes by time, without boxing.
+     * The sort is stable, so photos taken at the same time keep their original order.
+     *
+     * @param times the times to sort by.
+     * @param count the number of times to sort.
+     *
+     * @return the indexes {@code [0, count)}, in time order.
+     */
+    static int[] sortByTime(final long[] times, final int count) {
+        int[] indexes = new int[count];
+        int[] temp = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            indexes[i] = i;
+        }
+
+        // Bottom-up merge sort
+        for (int width = 1; width < count; width *= 2) {
+            for (int start = 0; start < count - width; start += width * 2) {
+                int middle = start + width;
+                int end = Math.min(start + width * 2, count);
+
+                for (int i = start, left = start, right = middle; i < end; i++) {
+                    if (right >= end || (left < middle && times[indexes[left]] <= times[indexes[right]])) {
+                        temp[i] = indexes[left++];
+                    }
+                    else {
+                        temp[i] = indexes[right++];
+                    }
+                }
+
+                System.arraycopy(temp, start, indexes, start, end - start);
+            }
+        }
+
+        return indexes;
+    }
+
+    /**
+     * @return the number of points in the full trail.
+     */
+    public int size() {
+        return latitudes.length;
+    }
+
+    /**
+     * Gets a single point of the full trail.
+     *
+     * @param index the index of the point, in time order.
+     *
+     * @return the point.
+     */
+    public LatLng getPoint(final int index) {
+        return new LatLng(latitudes[index], longitudes[index]);
+    }
+
+    /**
+     * Gets part of the trail.
+     *
+     * @param from the index of the first point, inclusive.
+     * @param to the index of the last point, exclusive.
+     *
+     * @return a new trail, with the points in the given range.
+     */
+    public PhotoTrail subTrail(final int from, final int to) {
+        return new PhotoTrail(Arrays.copyOfRange(times, from, to),
+                              Arrays.copyOfRange(latitudes, from, to),
+                              Arrays.copyOfRange(longitudes, from, to));
+    }
+
+    /**
+     * Feeds all points of the full trail, in time order, to the given segmenter.
+     * The segmenter is not flushed, so the last trip is left open.
+     *
+     * @param segmenter the segmenter.
+     * @param listener the callback for trips and stay points, may be {@code null}.
+     */
+    public void segment(final TripSegmenter segmenter, final TripSegmenter.Listener listener) {
+        for (int i = 0; i < times.length; i++) {
+            segmenter.add(times[i], latitudes[i], longitudes[i], listener);
+        }
+    }
+
+    /**
+     * Gets the simplified trail for the given map zoom level.
+     *
+     * @param zoom the map zoom level.
+     *
+     * @return an unmodifiable list of points.
+     */
+    public List<LatLng> getPoints(final float zoom) {
+        int level = Math.max(0, Math.min(MAX_ZOOM, (int) zoom));
+        List<LatLng> points = levels.get(level);
+
+        if (points == null) {
+            // Size of one screen pixel, in Web Mercator units
+            double tolerance = TOLERANCE_PIXELS / (TILE_SIZE * (double) (1 << level));
+            int[] indexes = PolylineSimplifier.simplify(getSignificance(), tolerance);
+
+            points = new ArrayList<>(indexes.length);
+
+            for (int index : indexes) {
+                points.add(new LatLng(latitudes[index], longitudes[index]));
+            }
+
+            points = Collections.unmodifiableList(points);
+            levels.put(level, points);
+        }
+
+        return points;
+    }
+}
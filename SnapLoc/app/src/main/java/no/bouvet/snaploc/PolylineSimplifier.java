@@ -0,0 +1,133 @@
+package no.bouvet.snaploc;
+
+/**
+ * Douglas-Peucker polyline simplification, over primitive coordinate arrays.
+ * <p/>
+ * Instead of simplifying for a single tolerance, we compute the significance of every point once.
+ * Simplifying for any tolerance is then a simple linear filter, keeping the points with
+ * significance above the tolerance. The result is identical to running Douglas-Peucker with
+ * that tolerance.
+ *
+ * @see <a href="http://en.wikipedia.org/wiki/Ramer%E2%80%93Douglas%E2%80%93Peucker_algorithm">Ramer-Douglas-Peucker algorithm</a>
+ */
+public final class PolylineSimplifier {
+    private PolylineSimplifier() {}
+
+    /**
+     * Computes the significance of each point of a polyline, that is the largest tolerance
+     * for which Douglas-Peucker would still keep the point.
+     * The end points are always kept, and have infinite significance.
+     *
+     * @param x the x coordinates.
+     * @param y the y coordinates, must be same length as {@code x}.
+     *
+     * @return the significance of each point, in the same unit as the coordinates.
+     */
+    public static double[] significance(final double[] x, final double[] y) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("x and y must have same length: " + x.length + " != " + y.length);
+        }
+
+        int length = x.length;
+        double[] significance = new double[length];
+
+        if (length == 0) {
+            return significance;
+        }
+
+        significance[0] = Double.POSITIVE_INFINITY;
+        significance[length - 1] = Double.POSITIVE_INFINITY;
+
+        // Explicit stack of (start, end) ranges, to avoid deep recursion for long polylines.
+        // Ranges on the stack never overlap, so there are never more than length ranges.
+        int[] stack = new int[Math.max(2, length * 2)];
+        int top = 0;
+
+        stack[top++] = 0;
+        stack[top++] = length - 1;
+
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+
+            if (end - start < 2) {
+                continue;
+            }
+
+            int farthest = start;
+            double maxDistanceSq = -1;
+
+            for (int i = start + 1; i < end; i++) {
+                double distanceSq = segmentDistanceSq(x[i], y[i], x[start], y[start], x[end], y[end]);
+
+                if (distanceSq > maxDistanceSq) {
+                    maxDistanceSq = distanceSq;
+                    farthest = i;
+                }
+            }
+
+            // A point is only kept if all the points that split before it are kept,
+            // so significance can never exceed the significance of the enclosing range
+            double parent = Math.min(significance[start], significance[end]);
+            significance[farthest] = Math.min(Math.sqrt(maxDistanceSq), parent);
+
+            stack[top++] = start;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = end;
+        }
+
+        return significance;
+    }
+
+    /**
+     * Gets the indexes of the points to keep, for the given tolerance.
+     *
+     * @param significance the significance of each point, as computed by {@link #significance(double[], double[])}.
+     * @param tolerance the tolerance, in the same unit as the coordinates.
+     *
+     * @return the indexes of the points to keep, in increasing order.
+     */
+    public static int[] simplify(final double[] significance, final double tolerance) {
+        int count = 0;
+
+        for (double value : significance) {
+            if (value > tolerance) {
+                count++;
+            }
+        }
+
+        int[] indexes = new int[count];
+
+        for (int i = 0, j = 0; i < significance.length; i++) {
+            if (significance[i] > tolerance) {
+                indexes[j++] = i;
+            }
+        }
+
+        return indexes;
+    }
+
+    // Squared distance from point p to the line segment a-b
+    private static double segmentDistanceSq(final double px, final double py,
+                                            final double ax, final double ay,
+                                            final double bx, final double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+
+        double t = lengthSq > 0 ? ((px - ax) * dx + (py - ay) * dy) / lengthSq : 0;
+
+        if (t < 0) {
+            t = 0;
+        }
+        else if (t > 1) {
+            t = 1;
+        }
+
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+
+        return ex * ex + ey * ey;
+    }
+}
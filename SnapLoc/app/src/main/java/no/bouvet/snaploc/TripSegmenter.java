@@ -0,0 +1,244 @@
+package no.bouvet.snaploc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single pass, constant memory segmentation of photo locations into trips and stay points.
+ * <p/>
+ * A stay point is a place where consecutive photos were taken within a given distance of each other,
+ * over at least a given amount of time. A trip ends whenever there is a long enough gap in time
+ * between two consecutive photos.
+ * <p/>
+ * Locations must be added in time order. Results are reported to the listener as soon as they are known,
+ * so new captures can be added incrementally, for as long as the segmenter is kept around.
+ * The open trip and stay point can be inspected at any time, without closing them.
+ * The segmenter itself only keeps a few fields of state, but as it is not persisted,
+ * the state for new captures is restored by replaying the whole (time ordered) library.
+ * Not thread safe.
+ *
+ * @see <a href="http://research.microsoft.com/apps/pubs/?id=79440">Mining User Similarity Based on Location History</a>
+ */
+public class TripSegmenter {
+    // Mean earth radius, in meters
+    private static final double EARTH_RADIUS = 6371009;
+
+    // Thresholds for detecting places (stay points) and trips throughout the app
+    private static final double DEFAULT_STAY_DISTANCE = 200; // meters
+    private static final long DEFAULT_STAY_TIME = TimeUnit.MINUTES.toMillis(20);
+    private static final long DEFAULT_TRIP_GAP = TimeUnit.HOURS.toMillis(8);
+
+    /**
+     * Callback for trips and stay points.
+     */
+    public interface Listener {
+        /**
+         * Invoked when a new trip starts.
+         *
+         * @param time the time of the first photo in the trip.
+         */
+        void onTripStart(long time);
+
+        /**
+         * Invoked when a stay point is detected.
+         *
+         * @param arrival the time of the first photo at the stay point.
+         * @param departure the time of the last photo at the stay point.
+         * @param latitude the mean latitude of the photos at the stay point, in degrees.
+         * @param longitude the mean longitude of the photos at the stay point, in degrees.
+         * @param photos the number of photos at the stay point.
+         */
+        void onStayPoint(long arrival, long departure, double latitude, double longitude, int photos);
+
+        /**
+         * Invoked when a trip ends.
+         *
+         * @param start the time of the first photo in the trip.
+         * @param end the time of the last photo in the trip.
+         * @param photos the number of photos in the trip.
+         */
+        void onTripEnd(long start, long end, int photos);
+    }
+
+    private final double stayDistance;
+    private final long stayTime;
+    private final long tripGap;
+
+    // Current trip
+    private boolean inTrip;
+    private long tripStart;
+    private long lastTime;
+    private int tripPhotos;
+
+    // Current stay point candidate, longitudes are summed relative to the first photo, to handle the anti-meridian
+    private long stayArrival;
+    private double stayLatitudeSum;
+    private double stayLongitudeOrigin;
+    private double stayLongitudeSum;
+    private int stayPhotos;
+
+    /**
+     * Creates a new segmenter.
+     *
+     * @param stayDistance the max distance from the stay point for a photo to be part of it, in meters.
+     * @param stayTime the minimum time spent at a stay point, in millis.
+     * @param tripGap the minimum gap in time between two photos to end a trip, in millis.
+     */
+    public TripSegmenter(final double stayDistance, final long stayTime, final long tripGap) {
+        this.stayDistance = stayDistance;
+        this.stayTime = stayTime;
+        this.tripGap = tripGap;
+    }
+
+    /**
+     * Creates a segmenter with the thresholds used for places and trips throughout the app.
+     *
+     * @return a new segmenter.
+     */
+    public static TripSegmenter createDefault() {
+        return new TripSegmenter(DEFAULT_STAY_DISTANCE, DEFAULT_STAY_TIME, DEFAULT_TRIP_GAP);
+    }
+
+    /**
+     * Fast approximate distance between two locations, using the equirectangular projection.
+     * Good enough for the short distances we care about.
+     *
+     * @return the distance, in meters.
+     */
+    public static double distance(final double latitude1, final double longitude1,
+                                  final double latitude2, final double longitude2) {
+        double lat1 = Math.toRadians(latitude1);
+        double lat2 = Math.toRadians(latitude2);
+        double deltaLon = Math.toRadians(wrapLongitude(longitude2 - longitude1));
+
+        double x = deltaLon * Math.cos((lat1 + lat2) / 2);
+        double y = lat2 - lat1;
+
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+
+    // Wraps a longitude (or longitude difference) around the anti-meridian, into the range [-180, 180)
+    private static double wrapLongitude(final double longitude) {
+        return ((longitude + 180) % 360 + 360) % 360 - 180;
+    }
+
+    /**
+     * Adds the location of the next photo.
+     *
+     * @param time the time the photo was taken, in millis, must not be before the previous photo.
+     * @param latitude the latitude, in degrees.
+     * @param longitude the longitude, in degrees.
+     * @param listener the callback for trips and stay points ended or started by this photo, may be {@code null}.
+     */
+    public void add(final long time, final double latitude, final double longitude, final Listener listener) {
+        if (inTrip && time < lastTime) {
+            throw new IllegalArgumentException("Locations must be added in time order: " + time + " < " + lastTime);
+        }
+
+        if (inTrip && time - lastTime >= tripGap) {
+            flush(listener);
+        }
+
+        if (!inTrip) {
+            inTrip = true;
+            tripStart = time;
+            tripPhotos = 0;
+
+            if (listener != null) {
+                listener.onTripStart(time);
+            }
+        }
+        else if (distance(getStayLatitude(), getStayLongitude(), latitude, longitude) > stayDistance) {
+            endStay(listener);
+        }
+
+        if (stayPhotos == 0) {
+            stayArrival = time;
+            stayLongitudeOrigin = longitude;
+        }
+
+        stayLatitudeSum += latitude;
+        stayLongitudeSum += wrapLongitude(longitude - stayLongitudeOrigin);
+        stayPhotos++;
+
+        tripPhotos++;
+        lastTime = time;
+    }
+
+    /**
+     * Reports the open stay point, if the photos so far qualify as one, without ending it.
+     *
+     * @param listener the callback for the open stay point.
+     */
+    public void peek(final Listener listener) {
+        if (isStaying()) {
+            listener.onStayPoint(stayArrival, lastTime, getStayLatitude(), getStayLongitude(), stayPhotos);
+        }
+    }
+
+    /**
+     * Ends the current trip, if any.
+     * Invoke when there are no more locations to add. The next location added will start a new trip.
+     *
+     * @param listener the callback for the ended stay point and trip, may be {@code null}.
+     */
+    public void flush(final Listener listener) {
+        if (inTrip) {
+            endStay(listener);
+            inTrip = false;
+
+            if (listener != null) {
+                listener.onTripEnd(tripStart, lastTime, tripPhotos);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if there is an open trip.
+     */
+    public boolean isInTrip() {
+        return inTrip;
+    }
+
+    /**
+     * @return the time of the first photo in the open trip.
+     */
+    public long getTripStart() {
+        return tripStart;
+    }
+
+    /**
+     * @return the time of the last photo added, new photos must not be before this time.
+     */
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * @return the number of photos in the open trip.
+     */
+    public int getTripPhotos() {
+        return inTrip ? tripPhotos : 0;
+    }
+
+    private boolean isStaying() {
+        return stayPhotos > 0 && lastTime - stayArrival >= stayTime;
+    }
+
+    private double getStayLatitude() {
+        return stayLatitudeSum / stayPhotos;
+    }
+
+    private double getStayLongitude() {
+        return wrapLongitude(stayLongitudeOrigin + stayLongitudeSum / stayPhotos);
+    }
+
+    private void endStay(final Listener listener) {
+        if (listener != null) {
+            peek(listener);
+        }
+
+        stayLatitudeSum = 0;
+        stayLongitudeSum = 0;
+        stayPhotos = 0;
+    }
+}